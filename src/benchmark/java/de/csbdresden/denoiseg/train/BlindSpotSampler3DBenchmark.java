@@ -0,0 +1,100 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.Dimensions;
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the blind-spot manipulation of a single 3D patch by {@link BlindSpotSampler3D}
+ * with the generic path of {@link DenoiSegDataWrapper#manipulateX}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlindSpotSampler3DBenchmark {
+
+	private static final double percPix = 1.6;
+	private static final int neighborhoodRadius = 5;
+
+	@Param({"64"})
+	public int patchSize;
+
+	private Dimensions shape;
+	private long boxSize;
+	private BlindSpotSampler3D sampler;
+	private RandomAccessibleInterval<FloatType> patchX;
+	private RandomAccessibleInterval<FloatType> patchY;
+	private final SplittableRandom random = new SplittableRandom(42);
+
+	@Setup(Level.Trial)
+	public void setup() {
+		shape = new FinalDimensions(patchSize, patchSize, patchSize);
+		long numPixels = (long) patchSize * patchSize * patchSize;
+		int numPix = (int) ((float) numPixels / 100. * percPix);
+		boxSize = Math.round(Math.sqrt(numPixels / (float) numPix));
+		sampler = new BlindSpotSampler3D(shape, boxSize, neighborhoodRadius);
+		patchX = DataWrapperBenchmark.random(new long[]{patchSize, patchSize, patchSize, 1}, new Random(1));
+		patchY = ArrayImgs.floats(patchSize, patchSize, patchSize, 2);
+	}
+
+	@Benchmark
+	public RandomAccessibleInterval<FloatType> generic() {
+		DenoiSegDataWrapper.manipulateX(boxSize, shape, patchX, patchY, 1, DenoiSegDataWrapper::uniform_withCP, neighborhoodRadius, random);
+		return patchY;
+	}
+
+	@Benchmark
+	public RandomAccessibleInterval<FloatType> sampler3D() {
+		sampler.manipulate(patchX, patchY, random);
+		return patchY;
+	}
+}
@@ -0,0 +1,160 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.Dimensions;
+import net.imglib2.FinalDimensions;
+import net.imglib2.Point;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.IntervalView;
+import net.imglib2.view.Views;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the batch generation of {@link DenoiSegDataWrapper} on synthetic tiles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DataWrapperBenchmark {
+
+	private static final double percPix = 1.6;
+	private static final int neighborhoodRadius = 5;
+	private static final int distinctTiles = 4;
+
+	@Param({"2", "3"})
+	public int dimensions;
+
+	@Param({"16", "64"})
+	public int batchSize;
+
+	@Param({"32", "64"})
+	public int patchSize;
+
+	private Dimensions shape;
+	private long boxSize;
+	private DenoiSegDataWrapper<FloatType> wrapper;
+	private RandomAccessibleInterval<FloatType> patchX;
+	private RandomAccessibleInterval<FloatType> patchY;
+	private IntervalView<FloatType> manipulatorPatch;
+	private Point coord;
+	private final SplittableRandom random = new SplittableRandom(42);
+
+	@Setup(Level.Trial)
+	public void setup() {
+		long[] shapeData = new long[dimensions];
+		Arrays.fill(shapeData, patchSize);
+		shape = new FinalDimensions(shapeData);
+		long numPixels = Arrays.stream(shapeData).reduce(1, (a, b) -> a * b);
+		int numPix = (int) ((float) numPixels / 100. * percPix);
+		boxSize = Math.round(Math.sqrt(numPixels / (float) numPix));
+
+		wrapper = new DenoiSegDataWrapper<>(createTiles(), batchSize, percPix, shape, neighborhoodRadius, DenoiSegDataWrapper.uniformWithCP(), new SplittableRandom(42));
+
+		long[] xDims = Arrays.copyOf(shapeData, dimensions + 1);
+		xDims[dimensions] = 1;
+		long[] yDims = Arrays.copyOf(shapeData, dimensions + 1);
+		yDims[dimensions] = 2;
+		patchX = random(xDims, new Random(1));
+		patchY = ArrayImgs.floats(yDims);
+		manipulatorPatch = Views.addDimension(Views.hyperSlice(patchX, dimensions, 0), 0, 0);
+		coord = new Point(dimensions);
+		coord.setPosition(patchSize / 2, 0);
+	}
+
+	private TrainingDataCollection<FloatType> createTiles() {
+		Random random = new Random(42);
+		long[] inputDims = new long[dimensions + 2];
+		Arrays.fill(inputDims, 2L * patchSize);
+		inputDims[dimensions] = 1;
+		inputDims[dimensions + 1] = 1;
+		long[] labelingDims = inputDims.clone();
+		labelingDims[dimensions + 1] = 3;
+		TrainingDataCollection<FloatType> distinct = new TrainingDataCollection<>();
+		for (int i = 0; i < distinctTiles; i++) {
+			distinct.add(new TrainingData<>(random(inputDims, random), random(labelingDims, random)));
+		}
+		// the batch content does not matter for the timing, repeat the tiles to fill the batch
+		TrainingDataCollection<FloatType> tiles = new TrainingDataCollection<>();
+		for (int i = 0; i < batchSize; i++) {
+			tiles.add(distinct.get(i % distinctTiles));
+		}
+		return tiles;
+	}
+
+	static RandomAccessibleInterval<FloatType> random(long[] dims, Random random) {
+		RandomAccessibleInterval<FloatType> img = ArrayImgs.floats(dims);
+		Views.iterable(img).forEach(pixel -> pixel.set(random.nextFloat()));
+		return img;
+	}
+
+	@Benchmark
+	public ProcessedTrainingData<FloatType> getItem() {
+		return wrapper.getItem(0);
+	}
+
+	@Benchmark
+	public RandomAccessibleInterval<FloatType> manipulateX() {
+		DenoiSegDataWrapper.manipulateX(boxSize, shape, patchX, patchY, 1, DenoiSegDataWrapper::uniform_withCP, neighborhoodRadius, random);
+		return patchY;
+	}
+
+	@Benchmark
+	public List<Point> stratifiedCoords() {
+		if(dimensions == 2) return DenoiSegDataWrapper.get_stratified_coords2D(boxSize, shape, random);
+		return DenoiSegDataWrapper.get_stratified_coords3D(boxSize, shape, random);
+	}
+
+	@Benchmark
+	public double uniformWithCP() {
+		return DenoiSegDataWrapper.uniform_withCP(manipulatorPatch, coord, neighborhoodRadius, random);
+	}
+}
@@ -0,0 +1,139 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imagej.modelzoo.consumer.model.tensorflow.TensorFlowConverter;
+import net.imglib2.Dimensions;
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.real.FloatType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.scijava.log.StderrLogService;
+import org.tensorflow.Tensor;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Compares the conversion of one training step's batches (input, denoising and segmentation target) to tensors:
+ * concatenated sample views converted pixel by pixel versus {@link TensorBatch} buffers handed over as a whole.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TensorConversionBenchmark {
+
+	@Param({"2", "3"})
+	public int dimensions;
+
+	@Param({"16", "64"})
+	public int batchSize;
+
+	@Param({"64"})
+	public int patchSize;
+
+	private int[] mapping;
+	private ProcessedTrainingData<FloatType> concatenated;
+	private ProcessedTrainingData<FloatType> contiguous;
+	private BatchTensors batchTensors;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		long[] shapeData = new long[dimensions];
+		Arrays.fill(shapeData, patchSize);
+		Dimensions shape = new FinalDimensions(shapeData);
+		mapping = dimensions == 2 ? new int[]{1, 2, 0, 3} : new int[]{1, 2, 3, 0, 4};
+		TrainingDataCollection<FloatType> tiles = createTiles();
+
+		DenoiSegDataWrapper<FloatType> wrapper = new DenoiSegDataWrapper<>(tiles, batchSize, 1.6, shape, 5,
+				DenoiSegDataWrapper.uniformWithCP(), new SplittableRandom(42));
+		concatenated = wrapper.getItem(0);
+		wrapper = new DenoiSegDataWrapper<>(tiles, batchSize, 1.6, shape, 5,
+				DenoiSegDataWrapper.uniformWithCP(), new SplittableRandom(42));
+		wrapper.setTensorMapping(mapping);
+		contiguous = wrapper.getItem(0);
+		batchTensors = new BatchTensors(new StderrLogService());
+	}
+
+	private TrainingDataCollection<FloatType> createTiles() {
+		Random random = new Random(42);
+		long[] inputDims = new long[dimensions + 2];
+		Arrays.fill(inputDims, 2L * patchSize);
+		inputDims[dimensions] = 1;
+		inputDims[dimensions + 1] = 1;
+		long[] labelingDims = inputDims.clone();
+		labelingDims[dimensions + 1] = 3;
+		TrainingDataCollection<FloatType> tiles = new TrainingDataCollection<>();
+		for (int i = 0; i < batchSize; i++) {
+			tiles.add(new TrainingData<>(DataWrapperBenchmark.random(inputDims, random), DataWrapperBenchmark.random(labelingDims, random)));
+		}
+		return tiles;
+	}
+
+	@Benchmark
+	public long pixelByPixel() {
+		return convert(concatenated, this::genericTensor);
+	}
+
+	@Benchmark
+	public long contiguousBuffer() {
+		return convert(contiguous, img -> batchTensors.toTensor(img, mapping));
+	}
+
+	private Tensor genericTensor(RandomAccessibleInterval<FloatType> img) {
+		return TensorFlowConverter.imageToTensor(img, mapping);
+	}
+
+	private static long convert(ProcessedTrainingData<FloatType> batch, Function<RandomAccessibleInterval<FloatType>, Tensor> converter) {
+		long elements = 0;
+		for (RandomAccessibleInterval<FloatType> img : Arrays.asList(batch.input, batch.outDenoise, batch.outSegment)) {
+			Tensor tensor = converter.apply(img);
+			elements += tensor.numElements();
+			tensor.close();
+		}
+		return elements;
+	}
+}
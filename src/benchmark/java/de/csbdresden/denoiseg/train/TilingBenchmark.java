@@ -0,0 +1,105 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.scijava.log.StderrLogService;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link DenoiSegDataGenerator#createTiles} and reading tiles normalized by
+ * {@link TrainUtils#normalize} on synthetic images.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TilingBenchmark {
+
+	@Param({"2", "3"})
+	public int dimensions;
+
+	@Param({"32", "64"})
+	public int patchSize;
+
+	private RandomAccessibleInterval<FloatType> raw;
+	private RandomAccessibleInterval<FloatType> labeling;
+	private TrainingDataCollection<FloatType> normalized;
+	private final StderrLogService logger = new StderrLogService();
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Random random = new Random(42);
+		// images covering 4 tiles per dimension in 2D and 2 tiles per dimension in 3D
+		long[] dims = new long[dimensions];
+		Arrays.fill(dims, (dimensions == 2 ? 8L : 4L) * patchSize);
+		raw = DataWrapperBenchmark.random(dims, random);
+		long[] labelingDims = Arrays.copyOf(dims, dimensions + 1);
+		labelingDims[dimensions] = 3;
+		labeling = DataWrapperBenchmark.random(labelingDims, random);
+
+		normalized = DenoiSegDataGenerator.createTiles(raw, labeling, dimensions, patchSize, logger);
+		TrainUtils.normalize(normalized, new FloatType(0.5f), new FloatType(0.3f));
+	}
+
+	@Benchmark
+	public TrainingDataCollection<FloatType> createTiles() {
+		return DenoiSegDataGenerator.createTiles(raw, labeling, dimensions, patchSize, logger);
+	}
+
+	@Benchmark
+	public double readNormalized() {
+		double sum = 0;
+		for (TrainingData<FloatType> tile : normalized) {
+			for (FloatType pixel : Views.iterable(tile.input)) {
+				sum += pixel.getRealDouble();
+			}
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,104 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package net.imglib2.boundary;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.view.Views;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks reading all pixels of an {@link IntTypeBoundary} view,
+ * i.e. the {@link IntTypeBoundaryRandomAccess4} used to compute the border class of the labelings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IntTypeBoundaryBenchmark {
+
+	@Param({"2", "3"})
+	public int dimensions;
+
+	@Param({"64", "128"})
+	public int size;
+
+	private RandomAccessibleInterval<IntType> boundary;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		long[] dims = new long[dimensions];
+		Arrays.fill(dims, size);
+		RandomAccessibleInterval<IntType> labeling = ArrayImgs.ints(dims);
+		// blocks of 8 pixels per dimension with random labels
+		Random random = new Random(42);
+		int[] labels = new int[1 << 16];
+		for (int i = 0; i < labels.length; i++) {
+			labels[i] = random.nextInt(20);
+		}
+		Cursor<IntType> cursor = Views.iterable(labeling).localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			int block = 0;
+			for (int d = 0; d < dimensions; d++) {
+				block = block * 31 + cursor.getIntPosition(d) / 8;
+			}
+			cursor.get().set(labels[Math.floorMod(block, labels.length)]);
+		}
+		boundary = new IntTypeBoundary<>(labeling);
+	}
+
+	@Benchmark
+	public long readBoundary() {
+		long sum = 0;
+		for (IntType pixel : Views.iterable(boundary)) {
+			sum += pixel.get();
+		}
+		return sum;
+	}
+}
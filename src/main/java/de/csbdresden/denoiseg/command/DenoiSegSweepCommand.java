@@ -0,0 +1,145 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.command;
+
+import de.csbdresden.denoiseg.train.DenoiSegConfig;
+import de.csbdresden.denoiseg.train.DenoiSegSweep;
+import de.csbdresden.denoiseg.train.DenoiSegTrainingManager;
+import de.csbdresden.denoiseg.train.TrainingSources;
+import org.scijava.Context;
+import org.scijava.ItemIO;
+import org.scijava.command.Command;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.scijava.widget.FileWidget.DIRECTORY_STYLE;
+import static org.scijava.widget.FileWidget.SAVE_STYLE;
+
+@Plugin( type = Command.class, menuPath = "Plugins>CSBDeep>DenoiSeg>DenoiSeg parameter sweep" )
+public class DenoiSegSweepCommand implements Command {
+
+	@Parameter(label = "Folder containing training raw images", style = DIRECTORY_STYLE)
+	private File trainingRawData;
+
+	@Parameter(label = "Folder containing training labeling images", style = DIRECTORY_STYLE)
+	private File trainingLabelingData;
+
+	@Parameter(label = "Folder containing validation raw images", style = DIRECTORY_STYLE)
+	private File validationRawData;
+
+	@Parameter(label = "Folder containing validation labeling images", style = DIRECTORY_STYLE)
+	private File validationLabelingData;
+
+	@Parameter(label = "Patch shapes (comma separated)")
+	private String patchShapes = "64";
+
+	@Parameter(label = "Neighborhood radii (comma separated)")
+	private String neighborhoodRadii = "5";
+
+	@Parameter(label = "Learning rates (comma separated)")
+	private String learningRates = "0.0004";
+
+	@Parameter(label = "Number of epochs")
+	private int numEpochs = 300;
+
+	@Parameter(label = "Number of steps per epoch")
+	private int numStepsPerEpoch = 200;
+
+	@Parameter(label = "Batch size")
+	private int batchSize = 64;
+
+	@Parameter(label = "Early stopping patience in epochs (0 = disabled)", min = "0")
+	private int earlyStoppingPatience = 10;
+
+	@Parameter(label = "Trials running at the same time", min = "1")
+	private int parallelTrials = 1;
+
+	@Parameter(label = "Cores per trial", min = "1")
+	private int coresPerTrial = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+	@Parameter(label = "Summary file (.tsv)", style = SAVE_STYLE)
+	private File summaryFile;
+
+	@Parameter(type = ItemIO.OUTPUT, label = "Sweep summary")
+	private String summary;
+
+	@Parameter
+	private Context context;
+
+	@Parameter
+	private LogService logService;
+
+	@Override
+	public void run() {
+		try {
+			logService.info("Loading sweep data..");
+			TrainingSources sources = DenoiSegSweep.load(context, trainingRawData, trainingLabelingData, validationRawData, validationLabelingData);
+			List<DenoiSegConfig> configs = DenoiSegSweep.grid(() -> new DenoiSegConfig()
+							.setNumEpochs(numEpochs)
+							.setStepsPerEpoch(numStepsPerEpoch)
+							.setBatchSize(batchSize)
+							.setEarlyStoppingPatience(earlyStoppingPatience),
+					parseInts(patchShapes), parseInts(neighborhoodRadii), parseFloats(learningRates));
+			logService.info("Running " + configs.size() + " trials, " + parallelTrials + " at a time..");
+			DenoiSegTrainingManager manager = new DenoiSegTrainingManager(context, parallelTrials * coresPerTrial, 0, coresPerTrial);
+			try {
+				List<DenoiSegSweep.TrialResult> results = new DenoiSegSweep(manager, sources).run(configs);
+				DenoiSegSweep.writeSummary(results, summaryFile);
+			} finally {
+				manager.shutdown();
+			}
+			summary = new String(Files.readAllBytes(summaryFile.toPath()));
+			logService.info("Sweep summary written to " + summaryFile.getAbsolutePath());
+		} catch (IOException e) {
+			logService.error(e);
+		} catch (InterruptedException e) {
+			logService.warn("DenoiSeg sweep canceled.");
+		}
+	}
+
+	private static int[] parseInts(String values) {
+		return Arrays.stream(values.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+	}
+
+	private static float[] parseFloats(String values) {
+		String[] split = values.split(",");
+		float[] res = new float[split.length];
+		for (int i = 0; i < split.length; i++) {
+			res[i] = Float.parseFloat(split[i].trim());
+		}
+		return res;
+	}
+}
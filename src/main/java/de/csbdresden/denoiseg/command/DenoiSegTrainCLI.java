@@ -0,0 +1,263 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.command;
+
+import de.csbdresden.denoiseg.train.DenoiSegConfig;
+import de.csbdresden.denoiseg.train.DenoiSegTraining;
+import io.scif.SCIFIOService;
+import io.scif.services.DatasetIOService;
+import net.imagej.DatasetService;
+import net.imagej.modelzoo.ModelZooService;
+import net.imagej.ops.OpService;
+import net.imagej.tensorflow.TensorFlowService;
+import org.scijava.Context;
+import org.scijava.app.StatusService;
+import org.scijava.event.EventService;
+import org.scijava.io.IOService;
+import org.scijava.log.LogService;
+import org.scijava.thread.ThreadService;
+import org.scijava.ui.UIService;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Command line entry point for DenoiSeg training without the ImageJ UI.
+ * Instead of launching ImageJ, it creates a context with only the services the training needs,
+ * trains, copies the exported models into the output directory and exits with one of the
+ * {@code EXIT_*} status codes.
+ */
+public class DenoiSegTrainCLI {
+
+	static final int EXIT_SUCCESS = 0;
+	static final int EXIT_INVALID_ARGUMENTS = 1;
+	static final int EXIT_TRAINING_FAILED = 2;
+	static final int EXIT_EXPORT_FAILED = 3;
+
+	private static final String usage = "Usage: DenoiSegTrainCLI [--config <file.properties>] [--<key> <value>]...\n" +
+			"Options given as arguments override the ones from the config file. Keys:\n" +
+			"  trainingRawData, trainingLabelingData     folders with training images (required unless bundle is given)\n" +
+			"  validationRawData, validationLabelingData folders with validation images, both or none\n" +
+			"                                            (default: split training data)\n" +
+			"  output                                    folder to copy the trained models to (required)\n" +
+			"  bundle                                    training bundle to train on instead of image folders\n" +
+			"  exportBundle                              file to write the prepared training data to, with numEpochs 0\n" +
+			"                                            only the bundle is written\n" +
+			"  numEpochs, numStepsPerEpoch, batchSize, patchShape, neighborhoodRadius, learningRate,\n" +
+			"  earlyStoppingPatience, earlyStoppingMinDelta, restoreBestModel, validationThreads,\n" +
+			"  intraOpThreads, interOpThreads, workerThreads, allowMemoryGrowth, memoryFraction, optimizerLevel, metricsLog,\n" +
+			"  memoryBudget (in MB), autoBatchSize, seed, progressInterval (in ms), progressFormat (HUMAN or MACHINE),\n" +
+			"  tileStore (directory for memory-mapped tiles), rawStorage (FLOAT32, FLOAT16 or BFLOAT16),\n" +
+			"  imageCache (in MB, load images on demand instead of keeping them in memory),\n" +
+			"  measureHalo (measure the halo of the exported model instead of deriving it from the network)";
+
+	private static final List<String> keys = Arrays.asList("trainingRawData", "trainingLabelingData",
+			"validationRawData", "validationLabelingData", "output", "bundle", "exportBundle", "numEpochs",
+			"numStepsPerEpoch", "batchSize", "patchShape", "neighborhoodRadius", "learningRate", "earlyStoppingPatience",
+			"earlyStoppingMinDelta", "restoreBestModel", "validationThreads", "intraOpThreads", "interOpThreads",
+			"workerThreads", "allowMemoryGrowth", "memoryFraction", "optimizerLevel", "metricsLog", "memoryBudget",
+			"autoBatchSize", "seed", "progressInterval", "progressFormat", "tileStore", "rawStorage", "imageCache",
+			"measureHalo");
+
+	public static void main(String... args) {
+		System.exit(run(args));
+	}
+
+	static int run(String... args) {
+		Properties properties;
+		DenoiSegConfig config;
+		try {
+			properties = parseArguments(args);
+			checkKeys(properties);
+			config = createConfig(properties);
+			List<String> required = new ArrayList<>();
+			if(!properties.containsKey("bundle")) required.addAll(Arrays.asList("trainingRawData", "trainingLabelingData"));
+			if(!isPrepareOnly(config)) required.add("output");
+			for (String key : required) {
+				if(!properties.containsKey(key)) throw new IllegalArgumentException("Missing option: " + key);
+			}
+		} catch (IllegalArgumentException | IOException e) {
+			System.err.println(e.getMessage());
+			System.err.println(usage);
+			return EXIT_INVALID_ARGUMENTS;
+		}
+
+		System.setProperty("java.awt.headless", "true");
+		Context context = new Context(LogService.class, ThreadService.class, EventService.class, StatusService.class,
+				UIService.class, IOService.class, DatasetService.class, DatasetIOService.class, SCIFIOService.class,
+				OpService.class, TensorFlowService.class, ModelZooService.class);
+		context.service(UIService.class).setHeadless(true);
+		DenoiSegTraining training = new DenoiSegTraining(context);
+		try {
+			if(isPrepareOnly(config)) {
+				training.init(config);
+				addData(training, properties);
+				training.train();
+				return !training.isCanceled() && config.getBundleExport().exists() ? EXIT_SUCCESS : EXIT_TRAINING_FAILED;
+			}
+			File latest = train(training, config, properties);
+			if(latest == null) return EXIT_TRAINING_FAILED;
+			File output = new File(properties.getProperty("output"));
+			if(!output.isDirectory() && !output.mkdirs()) throw new IOException("Cannot create output directory " + output);
+			File best = training.output().exportBestTrainedModel();
+			Files.copy(latest.toPath(), new File(output, "denoiseg-latest.zip").toPath(), StandardCopyOption.REPLACE_EXISTING);
+			Files.copy(best.toPath(), new File(output, "denoiseg-best.zip").toPath(), StandardCopyOption.REPLACE_EXISTING);
+			System.out.println("Saved trained models to " + output.getAbsolutePath());
+			return EXIT_SUCCESS;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return EXIT_EXPORT_FAILED;
+		} finally {
+			training.dispose();
+			context.dispose();
+		}
+	}
+
+	// with numEpochs 0 the prepared training data is only written to the bundle
+	private static boolean isPrepareOnly(DenoiSegConfig config) {
+		return config.getBundleExport() != null && config.getNumEpochs() == 0;
+	}
+
+	private static File train(DenoiSegTraining training, DenoiSegConfig config, Properties properties) throws IOException {
+		training.init(config);
+		addData(training, properties);
+		training.train();
+		if(training.isCanceled() || training.getStepsFinished() == 0) {
+			System.err.println("Training failed, see log for details.");
+			return null;
+		}
+		return training.output().exportLatestTrainedModel();
+	}
+
+	private static void addData(DenoiSegTraining training, Properties properties) throws IOException {
+		if(properties.containsKey("bundle")) {
+			training.input().addBundle(new File(properties.getProperty("bundle")));
+			return;
+		}
+		File trainingRaw = new File(properties.getProperty("trainingRawData"));
+		File trainingLabeling = new File(properties.getProperty("trainingLabelingData"));
+		if(!properties.containsKey("validationRawData")) {
+			training.input().addTrainingAndValidationData(trainingRaw, trainingLabeling);
+		} else {
+			training.input().addTrainingData(trainingRaw, trainingLabeling);
+			training.input().addValidationData(new File(properties.getProperty("validationRawData")),
+					new File(properties.getProperty("validationLabelingData")));
+		}
+	}
+
+	static Properties parseArguments(String... args) throws IOException {
+		Properties properties = new Properties();
+		Properties overrides = new Properties();
+		for (int i = 0; i < args.length; i++) {
+			if(!args[i].startsWith("--")) throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+			String key = args[i].substring(2);
+			String value;
+			if(key.contains("=")) {
+				value = key.substring(key.indexOf('=') + 1);
+				key = key.substring(0, key.indexOf('='));
+			} else {
+				if(i + 1 >= args.length) throw new IllegalArgumentException("Missing value for option --" + key);
+				value = args[++i];
+			}
+			if(key.equals("config")) {
+				try (Reader reader = new FileReader(value)) {
+					properties.load(reader);
+				}
+			} else {
+				overrides.setProperty(key, value);
+			}
+		}
+		properties.putAll(overrides);
+		return properties;
+	}
+
+	// a misspelled key would otherwise silently fall back to the default value
+	static void checkKeys(Properties properties) {
+		List<String> unknown = new ArrayList<>();
+		for (String key : properties.stringPropertyNames()) {
+			if(!keys.contains(key)) unknown.add(key);
+		}
+		if(!unknown.isEmpty()) {
+			Collections.sort(unknown);
+			throw new IllegalArgumentException("Unknown option" + (unknown.size() > 1 ? "s" : "") + ": " + String.join(", ", unknown));
+		}
+		if(properties.containsKey("validationRawData") != properties.containsKey("validationLabelingData")) {
+			throw new IllegalArgumentException("validationRawData and validationLabelingData must be given together");
+		}
+	}
+
+	static DenoiSegConfig createConfig(Properties properties) {
+		DenoiSegConfig config = new DenoiSegConfig();
+		try {
+			config.setNumEpochs(getInt(properties, "numEpochs", config.getNumEpochs()))
+					.setStepsPerEpoch(getInt(properties, "numStepsPerEpoch", config.getStepsPerEpoch()))
+					.setBatchSize(getInt(properties, "batchSize", config.getTrainBatchSize()))
+					.setPatchShape(getInt(properties, "patchShape", (int) config.getTrainPatchShape()))
+					.setNeighborhoodRadius(getInt(properties, "neighborhoodRadius", config.getNeighborhoodRadius()))
+					.setEarlyStoppingPatience(getInt(properties, "earlyStoppingPatience", config.getEarlyStoppingPatience()))
+					.setEarlyStoppingMinDelta(Float.parseFloat(properties.getProperty("earlyStoppingMinDelta", String.valueOf(config.getEarlyStoppingMinDelta()))))
+					.setRestoreBestModel(Boolean.parseBoolean(properties.getProperty("restoreBestModel", String.valueOf(config.getRestoreBestModel()))))
+					.setValidationThreads(getInt(properties, "validationThreads", config.getValidationThreads()))
+					.setIntraOpThreads(getInt(properties, "intraOpThreads", config.getIntraOpThreads()))
+					.setInterOpThreads(getInt(properties, "interOpThreads", config.getInterOpThreads()))
+					.setWorkerThreads(getInt(properties, "workerThreads", config.getWorkerThreads()))
+					.setAllowMemoryGrowth(Boolean.parseBoolean(properties.getProperty("allowMemoryGrowth", String.valueOf(config.getAllowMemoryGrowth()))))
+					.setMemoryFraction(Double.parseDouble(properties.getProperty("memoryFraction", String.valueOf(config.getMemoryFraction()))))
+					.setOptimizerLevel(DenoiSegConfig.GraphOptimizerLevel.valueOf(properties.getProperty("optimizerLevel", config.getOptimizerLevel().name())))
+					.setMemoryBudget(Long.parseLong(properties.getProperty("memoryBudget", "0")) * 1024L * 1024L)
+					.setImageCacheSize(Long.parseLong(properties.getProperty("imageCache", "0")) * 1024L * 1024L)
+					.setAutoBatchSize(Boolean.parseBoolean(properties.getProperty("autoBatchSize", String.valueOf(config.getAutoBatchSize()))))
+					.setMeasureHalo(Boolean.parseBoolean(properties.getProperty("measureHalo", String.valueOf(config.getMeasureHalo()))))
+					.setProgressInterval(Long.parseLong(properties.getProperty("progressInterval", String.valueOf(config.getProgressInterval()))))
+					.setConsoleFormat(DenoiSegConfig.ConsoleFormat.valueOf(properties.getProperty("progressFormat", config.getConsoleFormat().name())))
+					.setRawStorage(DenoiSegConfig.RawStorage.valueOf(properties.getProperty("rawStorage", config.getRawStorage().name())));
+			config.setLearningRate(Float.parseFloat(properties.getProperty("learningRate", String.valueOf(config.getLearningRate()))));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid number: " + e.getMessage());
+		}
+		if(properties.containsKey("seed")) config.setSeed(Long.parseLong(properties.getProperty("seed")));
+		if(properties.containsKey("metricsLog")) config.setMetricsLog(new File(properties.getProperty("metricsLog")));
+		if(properties.containsKey("tileStore")) config.setTileStoreDirectory(new File(properties.getProperty("tileStore")));
+		if(properties.containsKey("exportBundle")) config.setBundleExport(new File(properties.getProperty("exportBundle")));
+		return config;
+	}
+
+	private static int getInt(Properties properties, String key, int defaultValue) {
+		return Integer.parseInt(properties.getProperty(key, String.valueOf(defaultValue)));
+	}
+}
@@ -97,6 +97,33 @@ public class DenoiSegTrainCommand implements Command, Cancelable {
 	@Parameter(label = "Neighborhood radius")
 	private int neighborhoodRadius = 5;
 
+	@Parameter(label = "Early stopping patience in epochs (0 = disabled)", min = "0")
+	private int earlyStoppingPatience = 0;
+
+	@Parameter(label = "Early stopping minimum loss improvement")
+	private float earlyStoppingMinDelta = 0.0001f;
+
+	@Parameter(label = "Use best model as latest model when stopping early")
+	private boolean restoreBestModel = false;
+
+	@Parameter(label = "TensorFlow intra-op threads (0 = default)", min = "0")
+	private int intraOpThreads = 0;
+
+	@Parameter(label = "TensorFlow inter-op threads (0 = default)", min = "0")
+	private int interOpThreads = 0;
+
+	@Parameter(label = "TensorFlow graph optimizer level", choices = {"DEFAULT", "L0", "L1"})
+	private String optimizerLevel = "DEFAULT";
+
+	@Parameter(label = "Memory budget in MB (0 = no check)", min = "0")
+	private int memoryBudget = 0;
+
+	@Parameter(label = "Reduce batch size to fit the memory budget")
+	private boolean autoBatchSize = false;
+
+	@Parameter(label = "Update the preview every N epochs", min = "1")
+	private int previewInterval = 1;
+
 	@Parameter(type = ItemIO.OUTPUT, label = "Model from last training step")
 	protected ModelZooArchive latestTrainedModel;
 
@@ -144,7 +171,16 @@ public class DenoiSegTrainCommand implements Command, Cancelable {
 				.setStepsPerEpoch(numStepsPerEpoch)
 				.setBatchSize(batchSize)
 				.setPatchShape(patchShape)
-				.setNeighborhoodRadius(neighborhoodRadius));
+				.setNeighborhoodRadius(neighborhoodRadius)
+				.setEarlyStoppingPatience(earlyStoppingPatience)
+				.setEarlyStoppingMinDelta(earlyStoppingMinDelta)
+				.setRestoreBestModel(restoreBestModel)
+				.setIntraOpThreads(intraOpThreads)
+				.setInterOpThreads(interOpThreads)
+				.setOptimizerLevel(DenoiSegConfig.GraphOptimizerLevel.valueOf(optimizerLevel))
+				.setMemoryBudget(memoryBudget * 1024L * 1024L)
+				.setAutoBatchSize(autoBatchSize)
+				.setPreviewInterval(previewInterval));
 		if(showPrediction && training.getDialog() != null) training.getDialog().addTask( "Prediction" );
 
 //		training.confirmInputMatching("training", trainingRawData, trainingLabelingData);
@@ -28,6 +28,9 @@
  */
 package de.csbdresden.denoiseg.predict;
 
+import de.csbdresden.denoiseg.train.MemoryEstimator;
+import io.bioimage.specification.InputNodeSpecification;
+import io.bioimage.specification.OutputNodeSpecification;
 import net.imagej.modelzoo.ModelZooArchive;
 import net.imagej.modelzoo.consumer.AbstractModelZooPrediction;
 import net.imagej.modelzoo.consumer.SingleImagePrediction;
@@ -36,12 +39,32 @@ import net.imagej.modelzoo.consumer.model.node.ImageDataReference;
 import net.imagej.modelzoo.consumer.model.prediction.ImageInput;
 import net.imagej.modelzoo.consumer.sanitycheck.SanityCheck;
 import net.imagej.ops.OpService;
+import net.imglib2.FinalInterval;
 import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.loops.LoopBuilder;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
 import org.scijava.Context;
+import org.scijava.log.LogService;
 import org.scijava.plugin.Parameter;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Predicts with a trained DenoiSeg model. The TensorFlow session is created by imagej-modelzoo with default
+ * options, the session settings of {@link de.csbdresden.denoiseg.train.DenoiSegConfig} only apply to training.
+ */
 public class DenoiSegPrediction extends AbstractModelZooPrediction<ImageInput<?>, DenoiSegOutput<?, ?>> implements SingleImagePrediction<DenoiSegOutput<?, ?>> {
 
 	@Parameter
@@ -50,6 +73,19 @@ public class DenoiSegPrediction extends AbstractModelZooPrediction<ImageInput<?>
 	@Parameter
 	private Context context;
 
+	@Parameter
+	private LogService logService;
+
+	private int batchSize = 16;
+	private int shapeBucket = 0;
+	private boolean autoTiling = true;
+	private long memoryBudget = 0;
+	private long targetLatency = 0;
+	// measured by previous predictions, 0 if nothing was predicted yet
+	private double pixelsPerSecond = 0;
+	private PredictionTiling tiling;
+	private int unstacked = 0;
+
 	public DenoiSegPrediction() {
 	}
 
@@ -78,7 +114,255 @@ public class DenoiSegPrediction extends AbstractModelZooPrediction<ImageInput<?>
 	public <T extends RealType<T> & NativeType<T>> DenoiSegOutput<?, ?> predict(RandomAccessibleInterval<T> input, String axes) throws Exception {
 		String inputName = getTrainedModel().getSpecification().getInputs().get(0).getName();
 		setInput(new ImageInput<>(inputName, input, axes));
+		if(autoTiling) {
+			tiling = planTiling(input, axes);
+			if(tiling != null) getOptions().numberOfTiles(tiling.getNumTiles());
+		}
+		long start = System.nanoTime();
 		run();
+		if(tiling != null) {
+			double seconds = (System.nanoTime() - start) / 1e9;
+			if(seconds > 0) pixelsPerSecond = tiling.getComputedPixels() / seconds;
+		}
 		return getOutput();
 	}
+
+	/**
+	 * @param autoTiling if true (the default), {@link #predict} chooses the number of tiles from the memory budget,
+	 *                   the target latency and the shape constraints of the model instead of using the model zoo default
+	 */
+	public void setAutoTiling(boolean autoTiling) {
+		this.autoTiling = autoTiling;
+	}
+
+	/**
+	 * @param bytes memory available for predicting one tile, 0 to use half of the free physical memory
+	 */
+	public void setMemoryBudget(long bytes) {
+		this.memoryBudget = bytes;
+	}
+
+	/**
+	 * @param millis maximal time the prediction of one tile should take, 0 for no limit. The speed of the
+	 *               model is measured by each prediction, the limit is therefore only applied from the second one on.
+	 */
+	public void setTargetLatency(long millis) {
+		this.targetLatency = millis;
+	}
+
+	/**
+	 * @return the tiling chosen by the last call of {@link #predict}, null if automatic tiling was not used
+	 */
+	public PredictionTiling getTiling() {
+		return tiling;
+	}
+
+	private PredictionTiling planTiling(RandomAccessibleInterval<?> input, String axes) {
+		InputNodeSpecification inputSpec = getTrainedModel().getSpecification().getInputs().get(0);
+		String modelAxes = inputSpec.getAxes().toLowerCase();
+		List<Integer> modelMin = inputSpec.getShapeMin();
+		List<Integer> modelStep = inputSpec.getShapeStep();
+		List<Integer> spatial = new ArrayList<>();
+		long batch = 1;
+		for (int d = 0; d < axes.length(); d++) {
+			char axis = Character.toLowerCase(axes.charAt(d));
+			if(axis == 'x' || axis == 'y' || axis == 'z') spatial.add(d);
+			else if(axis != 'c') batch *= input.dimension(d);
+		}
+		long[] dimensions = new long[spatial.size()];
+		int[] shapeMin = new int[spatial.size()];
+		int[] shapeStep = new int[spatial.size()];
+		int[] halo = new int[spatial.size()];
+		for (int i = 0; i < spatial.size(); i++) {
+			int d = spatial.get(i);
+			int modelAxis = modelAxes.indexOf(Character.toLowerCase(axes.charAt(d)));
+			if(modelAxis < 0) return null;
+			dimensions[i] = input.dimension(d);
+			shapeMin[i] = modelMin.get(modelAxis);
+			shapeStep[i] = modelStep.get(modelAxis);
+			for (OutputNodeSpecification output : getTrainedModel().getSpecification().getOutputs()) {
+				if(output.getHalo() != null) halo[i] = Math.max(halo[i], output.getHalo().get(modelAxis));
+			}
+		}
+		PredictionTiling plan = new PredictionTiling(dimensions, shapeMin, shapeStep, halo, batch);
+		long bytesPerPixel = bytesPerPixel(inputSpec);
+		if(bytesPerPixel <= 0) {
+			logService.warn("Cannot derive the network depth from the model specification, using the default tiling");
+			return null;
+		}
+		long budget = memoryBudget > 0 ? memoryBudget : freeMemory() / 2;
+		long maxTilePixels = budget / bytesPerPixel;
+		if(targetLatency > 0 && pixelsPerSecond > 0) {
+			maxTilePixels = Math.min(maxTilePixels, (long) (pixelsPerSecond * targetLatency / 1000.));
+		}
+		plan.plan(maxTilePixels);
+		if(plan.fits()) {
+			logService.info("Predicting with " + plan);
+		} else {
+			logService.warn("Even the smallest tiles exceed the memory budget of " + MemoryEstimator.format(budget)
+					+ " or the target latency, predicting with " + plan);
+		}
+		return plan;
+	}
+
+	/**
+	 * The U-Net pools each spatial axis once per level, its input therefore grows in steps of 2^depth
+	 * in all spatial axes of the model.
+	 * @return the bytes needed per pixel of a predicted tile, 0 if the specification does not describe such a network
+	 */
+	static long bytesPerPixel(InputNodeSpecification inputSpec) {
+		String axes = inputSpec.getAxes().toLowerCase();
+		List<Integer> steps = inputSpec.getShapeStep();
+		int dimensions = 0;
+		int depth = -1;
+		for (int d = 0; d < axes.length(); d++) {
+			char axis = axes.charAt(d);
+			if(axis != 'x' && axis != 'y' && axis != 'z') continue;
+			int step = steps.get(d);
+			if(Integer.bitCount(step) != 1) return 0;
+			int axisDepth = Integer.numberOfTrailingZeros(step);
+			if(depth >= 0 && depth != axisDepth) return 0;
+			depth = axisDepth;
+			dimensions++;
+		}
+		if(dimensions == 0) return 0;
+		return MemoryEstimator.predictionBytesPerPixel(dimensions, depth);
+	}
+
+	private static long freeMemory() {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		if(os instanceof com.sun.management.OperatingSystemMXBean) {
+			return ((com.sun.management.OperatingSystemMXBean) os).getFreePhysicalMemorySize();
+		}
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.maxMemory() - runtime.totalMemory() + runtime.freeMemory();
+	}
+
+	/**
+	 * @param batchSize maximum number of images {@link #predictBatch} stacks into one prediction
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @param multiple if positive, {@link #predictBatch} pads images to the next multiple of this size in each axis,
+	 *                 so that images of similar shapes are predicted together. 0 only stacks images of the same shape.
+	 */
+	public void setShapeBucket(int multiple) {
+		this.shapeBucket = multiple;
+	}
+
+	/**
+	 * Predicts many images with as few model runs as possible. Images of the same shape (or the same shape bucket,
+	 * see {@link #setShapeBucket(int)}) are stacked along the batch axis and predicted together.
+	 *
+	 * @param axes the axes of each input image, e.g. "XY"
+	 * @return one output per input image, in the order of the inputs
+	 */
+	public <T extends RealType<T> & NativeType<T>> List<DenoiSegOutput<?, ?>> predictBatch(List<RandomAccessibleInterval<T>> inputs, String axes) throws Exception {
+		long startTime = System.nanoTime();
+		int runs = 0;
+		unstacked = 0;
+		DenoiSegOutput<?, ?>[] outputs = new DenoiSegOutput[inputs.size()];
+		// a time axis is predicted as batch axis, it is not possible to stack images which already have one
+		boolean stackable = !axes.toUpperCase().contains("T");
+		Map<List<Long>, List<Integer>> buckets = new LinkedHashMap<>();
+		for (int i = 0; i < inputs.size(); i++) {
+			List<Long> shape = new ArrayList<>();
+			for (long dimension : Intervals.dimensionsAsLongArray(inputs.get(i))) {
+				shape.add(shapeBucket > 0 ? (dimension + shapeBucket - 1) / shapeBucket * shapeBucket : dimension);
+			}
+			buckets.computeIfAbsent(shape, key -> new ArrayList<>()).add(i);
+		}
+		for (Map.Entry<List<Long>, List<Integer>> bucket : buckets.entrySet()) {
+			List<Integer> indices = bucket.getValue();
+			for (int start = 0; start < indices.size(); start += Math.max(1, batchSize)) {
+				List<Integer> batch = indices.subList(start, Math.min(indices.size(), start + Math.max(1, batchSize)));
+				boolean stacked = stackable && batch.size() > 1 && predictStacked(inputs, batch, bucket.getKey(), axes, outputs);
+				if(stacked) {
+					runs++;
+					continue;
+				}
+				if(stackable && batch.size() > 1) {
+					logService.warn("The model did not predict the stacked images as one batch, predicting "
+							+ batch.size() + " images one by one.");
+					unstacked += batch.size();
+				}
+				for (int index : batch) {
+					DenoiSegOutput<?, ?> output = predict(inputs.get(index), axes);
+					outputs[index] = new DenoiSegOutput<>(copy(output.getDenoised()), copy(output.getSegmented()));
+					runs++;
+				}
+			}
+		}
+		logService.info("Predicted " + inputs.size() + " images with " + runs + " model runs in "
+				+ (System.nanoTime() - startTime) / 1000000 + " ms.");
+		return Arrays.asList(outputs);
+	}
+
+	/**
+	 * @return the number of images of the last {@link #predictBatch} call which should have been predicted
+	 * together with others, but were predicted one by one because the model output had no batch axis
+	 */
+	public int getUnstackedCount() {
+		return unstacked;
+	}
+
+	/**
+	 * Predicts the images of one batch as one image with an additional time axis, which is mapped to the batch
+	 * axis of the model. The outputs are expected in the axis order of the input, followed by the channel axis.
+	 *
+	 * @return false if the outputs do not have the expected batch axis, nothing is written to {@code outputs} then
+	 */
+	private <T extends RealType<T> & NativeType<T>> boolean predictStacked(List<RandomAccessibleInterval<T>> inputs, List<Integer> batch,
+			List<Long> shape, String axes, DenoiSegOutput<?, ?>[] outputs) throws Exception {
+		long[] bucketMax = new long[shape.size()];
+		for (int d = 0; d < bucketMax.length; d++) {
+			bucketMax[d] = shape.get(d) - 1;
+		}
+		FinalInterval bucketInterval = new FinalInterval(new long[bucketMax.length], bucketMax);
+		List<RandomAccessibleInterval<T>> padded = new ArrayList<>(batch.size());
+		for (int index : batch) {
+			padded.add(Views.interval(Views.extendMirrorDouble(Views.zeroMin(inputs.get(index))), bucketInterval));
+		}
+		DenoiSegOutput<?, ?> output = predict(Views.stack(padded), axes + "T");
+		int batchAxis = shape.size();
+		if(!hasBatchAxis(output.getDenoised(), batchAxis, batch.size()) || !hasBatchAxis(output.getSegmented(), batchAxis, batch.size())) {
+			return false;
+		}
+		for (int i = 0; i < batch.size(); i++) {
+			long[] dims = Intervals.dimensionsAsLongArray(inputs.get(batch.get(i)));
+			outputs[batch.get(i)] = new DenoiSegOutput<>(
+					copy(crop(Views.hyperSlice(output.getDenoised(), batchAxis, i), dims)),
+					copy(crop(Views.hyperSlice(output.getSegmented(), batchAxis, i), dims)));
+		}
+		return true;
+	}
+
+	private static boolean hasBatchAxis(RandomAccessibleInterval<?> output, int batchAxis, int batchSize) {
+		return output.numDimensions() > batchAxis && output.dimension(batchAxis) == batchSize;
+	}
+
+	// removes the padding of the spatial axes, further (channel) axes are kept
+	private static <T> RandomAccessibleInterval<T> crop(RandomAccessibleInterval<T> output, long[] dims) {
+		long[] min = Intervals.minAsLongArray(output);
+		long[] max = Intervals.maxAsLongArray(output);
+		for (int d = 0; d < dims.length; d++) {
+			max[d] = min[d] + dims[d] - 1;
+		}
+		return Views.interval(output, min, max);
+	}
+
+	// the outputs of the model are reused by the next prediction
+	@SuppressWarnings("unchecked")
+	private static RandomAccessibleInterval copy(RandomAccessibleInterval img) {
+		return copyImg(img);
+	}
+
+	private static <T extends NativeType<T>> RandomAccessibleInterval<T> copyImg(RandomAccessibleInterval<T> img) {
+		Img<T> copy = new ArrayImgFactory<>(Util.getTypeFromInterval(img)).create(img);
+		LoopBuilder.setImages(Views.zeroMin(img), copy).forEachPixel((in, out) -> out.set(in));
+		return copy;
+	}
 }
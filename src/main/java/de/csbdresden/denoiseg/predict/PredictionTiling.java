@@ -0,0 +1,177 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.predict;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Chooses the tile grid of a prediction. Starting with a single tile, the axis with the largest tile is split
+ * in half until one tile, including its halo and padded to the shape constraints of the model, fits into the
+ * given number of pixels. This results in the fewest and largest tiles and thus in the smallest overlap.
+ * The model zoo tiling splits the image the same way, so the number of tiles is sufficient to reproduce the grid.
+ */
+public class PredictionTiling {
+
+	private final long[] dimensions;
+	private final int[] shapeMin;
+	private final int[] shapeStep;
+	private final int[] halo;
+	private final long batchSize;
+
+	private int[] grid;
+	private boolean fits;
+
+	/**
+	 * @param dimensions the size of the image in each spatial axis
+	 * @param shapeMin the minimal tile size of the model in each spatial axis
+	 * @param shapeStep the tile size of the model has to be {@code shapeMin} plus a multiple of this, 0 for a fixed size
+	 * @param halo the overlap needed on each side of a tile in each spatial axis
+	 * @param batchSize the number of images predicted together with each tile
+	 */
+	public PredictionTiling(long[] dimensions, int[] shapeMin, int[] shapeStep, int[] halo, long batchSize) {
+		this.dimensions = dimensions;
+		this.shapeMin = shapeMin;
+		this.shapeStep = shapeStep;
+		this.halo = halo;
+		this.batchSize = Math.max(1, batchSize);
+		this.grid = new int[dimensions.length];
+		Arrays.fill(grid, 1);
+	}
+
+	/**
+	 * @param maxTilePixels the maximal number of pixels of one tile, including its halo and all images of the batch
+	 * @return this
+	 */
+	public PredictionTiling plan(long maxTilePixels) {
+		Arrays.fill(grid, 1);
+		while(getTilePixels() > maxTilePixels) {
+			int axis = largestSplittableAxis();
+			if(axis < 0) {
+				fits = false;
+				return this;
+			}
+			grid[axis] *= 2;
+		}
+		fits = true;
+		return this;
+	}
+
+	private int largestSplittableAxis() {
+		int axis = -1;
+		long largest = 0;
+		for (int d = 0; d < grid.length; d++) {
+			long tile = tileShape(d);
+			// splitting is pointless if it does not make the tile smaller
+			if(tileShape(d, grid[d] * 2) >= tile) continue;
+			if(tile > largest) {
+				largest = tile;
+				axis = d;
+			}
+		}
+		return axis;
+	}
+
+	private long tileShape(int d) {
+		return tileShape(d, grid[d]);
+	}
+
+	private long tileShape(int d, int tiles) {
+		long size = (dimensions[d] + tiles - 1) / tiles;
+		if(tiles > 1) size += 2L * halo[d];
+		if(shapeStep[d] <= 0) return shapeMin[d];
+		if(size <= shapeMin[d]) return shapeMin[d];
+		return shapeMin[d] + (size - shapeMin[d] + shapeStep[d] - 1) / shapeStep[d] * shapeStep[d];
+	}
+
+	/**
+	 * @return false if even the smallest possible tiles do not fit into the number of pixels given to {@link #plan(long)}
+	 */
+	public boolean fits() {
+		return fits;
+	}
+
+	/**
+	 * @return the number of tiles in each spatial axis
+	 */
+	public int[] getGrid() {
+		return grid.clone();
+	}
+
+	public int getNumTiles() {
+		int tiles = 1;
+		for (int n : grid) tiles *= n;
+		return tiles;
+	}
+
+	/**
+	 * @return the size of one tile in each spatial axis, including its halo and padding
+	 */
+	public long[] getTileShape() {
+		long[] shape = new long[grid.length];
+		for (int d = 0; d < shape.length; d++) {
+			shape[d] = tileShape(d);
+		}
+		return shape;
+	}
+
+	/**
+	 * @return the number of pixels of one tile, including its halo and padding and all images of the batch
+	 */
+	public long getTilePixels() {
+		long pixels = batchSize;
+		for (int d = 0; d < grid.length; d++) {
+			pixels *= tileShape(d);
+		}
+		return pixels;
+	}
+
+	/**
+	 * @return the number of pixels computed by the network for the whole image
+	 */
+	public long getComputedPixels() {
+		return getNumTiles() * getTilePixels();
+	}
+
+	/**
+	 * @return the fraction of computed pixels which are not part of the image, e.g. 0.5 if 50% more pixels than the
+	 * image contains are computed because of halo and padding
+	 */
+	public double getOverlapOverhead() {
+		long pixels = batchSize;
+		for (long dimension : dimensions) pixels *= dimension;
+		return (double) getComputedPixels() / pixels - 1;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.ROOT, "%d tile(s) %s of size %s, overlap overhead %.1f%%",
+				getNumTiles(), Arrays.toString(grid), Arrays.toString(getTileShape()), getOverlapOverhead() * 100);
+	}
+}
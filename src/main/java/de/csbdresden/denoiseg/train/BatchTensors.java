@@ -0,0 +1,85 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imagej.modelzoo.consumer.model.tensorflow.TensorFlowConverter;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.real.FloatType;
+import org.scijava.log.LogService;
+import org.tensorflow.Tensor;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Converts batches to tensors. The array of a {@link TensorBatch} is handed over as one buffer,
+ * all other images are converted pixel by pixel by the {@link TensorFlowConverter}.
+ * The first {@link TensorBatch} is converted both ways, if the results differ all batches are
+ * converted pixel by pixel.
+ */
+class BatchTensors {
+
+	private final LogService logService;
+	// null until the first batch was compared with the pixel by pixel conversion
+	private Boolean layoutVerified = null;
+
+	BatchTensors(LogService logService) {
+		this.logService = logService;
+	}
+
+	synchronized Tensor toTensor(RandomAccessibleInterval<FloatType> img, int[] mapping) {
+		if(!(img instanceof TensorBatch) || Boolean.FALSE.equals(layoutVerified)) {
+			return TensorFlowConverter.imageToTensor(img, mapping);
+		}
+		TensorBatch batch = (TensorBatch) img;
+		Tensor<Float> tensor = Tensor.create(batch.getTensorShape(), FloatBuffer.wrap(batch.getData()));
+		if(layoutVerified == null) {
+			Tensor expected = TensorFlowConverter.imageToTensor(img, mapping);
+			layoutVerified = equal(expected, tensor);
+			if(!layoutVerified) {
+				logService.warn("The batch layout does not match the tensor layout, batches are converted pixel by pixel.");
+				tensor.close();
+				return expected;
+			}
+			expected.close();
+		}
+		return tensor;
+	}
+
+	private static boolean equal(Tensor expected, Tensor<Float> actual) {
+		if(!Arrays.equals(expected.shape(), actual.shape())) return false;
+		FloatBuffer expectedData = FloatBuffer.allocate(expected.numElements());
+		FloatBuffer actualData = FloatBuffer.allocate(actual.numElements());
+		expected.writeTo(expectedData);
+		actual.writeTo(actualData);
+		expectedData.flip();
+		actualData.flip();
+		return expectedData.equals(actualData);
+	}
+}
@@ -0,0 +1,151 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.Dimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+
+import java.util.SplittableRandom;
+
+/**
+ * Blind-spot manipulation of 3D patches which works directly on the float arrays of the patches,
+ * using precomputed strides instead of views and a {@link net.imglib2.Point} per blind spot.
+ * It draws the same random numbers in the same order as
+ * {@link DenoiSegDataWrapper#manipulateX} with {@link DenoiSegDataWrapper#uniform_withCP},
+ * both produce identical patches.
+ */
+final class BlindSpotSampler3D {
+
+	private final int sizeX;
+	private final int sizeY;
+	private final int sizeZ;
+	private final int strideY;
+	private final int strideZ;
+	private final int numPixels;
+	private final int boxSize;
+	private final int boxCountX;
+	private final int boxCountY;
+	private final int boxCountZ;
+	private final int neighborhoodRadius;
+	private final int windowSize;
+
+	BlindSpotSampler3D(Dimensions shape, long boxSize, int neighborhoodRadius) {
+		if(shape.numDimensions() != 3) throw new IllegalArgumentException("Expected a 3D patch shape, got " + shape.numDimensions() + " dimensions.");
+		sizeX = (int) shape.dimension(0);
+		sizeY = (int) shape.dimension(1);
+		sizeZ = (int) shape.dimension(2);
+		strideY = sizeX;
+		strideZ = sizeX * sizeY;
+		numPixels = strideZ * sizeZ;
+		this.boxSize = (int) boxSize;
+		boxCountX = (int) Math.ceil(sizeX / (float) boxSize);
+		boxCountY = (int) Math.ceil(sizeY / (float) boxSize);
+		boxCountZ = (int) Math.ceil(sizeZ / (float) boxSize);
+		this.neighborhoodRadius = neighborhoodRadius;
+		windowSize = neighborhoodRadius * 2 + 1;
+	}
+
+	/**
+	 * Manipulates one patch if both images are backed by a single float array.
+	 *
+	 * @param patchX input patch of shape (x, y, z, 1), the blind spots are replaced in place
+	 * @param patchY denoising target of shape (x, y, z, 2), receives the original values and the mask
+	 * @return false if the images are not backed by float arrays and nothing was done
+	 */
+	boolean manipulate(RandomAccessibleInterval<?> patchX, RandomAccessibleInterval<?> patchY, SplittableRandom random) {
+		float[] x = floatArray(patchX);
+		float[] y = floatArray(patchY);
+		if(x == null || y == null || x.length != numPixels || y.length != 2 * numPixels) return false;
+		manipulate(x, y, random);
+		return true;
+	}
+
+	/**
+	 * @param x input patch in x-y-z order, the blind spots are replaced in place
+	 * @param y denoising target, the original values followed by the mask
+	 */
+	void manipulate(float[] x, float[] y, SplittableRandom random) {
+		int maxCount = boxCountX * boxCountY * boxCountZ;
+		int[] posX = new int[maxCount];
+		int[] posY = new int[maxCount];
+		int[] posZ = new int[maxCount];
+		int count = stratifiedCoords(posX, posY, posZ, random);
+
+		// all replacement values are read before the first blind spot is written
+		float[] values = new float[count];
+		for (int k = 0; k < count; k++) {
+			int neighborX = windowStart(posX[k], sizeX) + DenoiSegDataWrapper.neighborOffset(neighborhoodRadius, random);
+			int neighborY = windowStart(posY[k], sizeY) + DenoiSegDataWrapper.neighborOffset(neighborhoodRadius, random);
+			int neighborZ = windowStart(posZ[k], sizeZ) + DenoiSegDataWrapper.neighborOffset(neighborhoodRadius, random);
+			values[k] = x[neighborX + neighborY * strideY + neighborZ * strideZ];
+		}
+
+		for (int k = 0; k < count; k++) {
+			int index = posX[k] + posY[k] * strideY + posZ[k] * strideZ;
+			y[index] = x[index];
+			y[numPixels + index] = 1;
+			x[index] = values[k];
+		}
+	}
+
+	private int stratifiedCoords(int[] posX, int[] posY, int[] posZ, SplittableRandom random) {
+		int count = 0;
+		for (int i = 0; i < boxCountX; i++) {
+			for (int j = 0; j < boxCountY; j++) {
+				for (int k = 0; k < boxCountZ; k++) {
+					int x = i * boxSize + (int) (random.nextDouble() * boxSize);
+					int y = j * boxSize + (int) (random.nextDouble() * boxSize);
+					int z = k * boxSize + (int) (random.nextDouble() * boxSize);
+					if (x < sizeX && y < sizeY && z < sizeZ) {
+						posX[count] = x;
+						posY[count] = y;
+						posZ[count] = z;
+						count++;
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	// same window as DenoiSegDataWrapper#get_subpatch: centered on the blind spot, shifted back into the patch at the border
+	private int windowStart(int position, int size) {
+		int start = Math.max(0, position - neighborhoodRadius);
+		return start + Math.min(0, size - (start + windowSize));
+	}
+
+	private static float[] floatArray(RandomAccessibleInterval<?> img) {
+		if(!(img instanceof ArrayImg)) return null;
+		Object access = ((ArrayImg<?, ?>) img).update(null);
+		if(!(access instanceof FloatArray)) return null;
+		return ((FloatArray) access).getCurrentStorageArray();
+	}
+}
@@ -0,0 +1,113 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converter;
+import net.imglib2.converter.Converters;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Segmentation labels stored as one byte class index per pixel. They are expanded to the
+ * one-hot channels (background, foreground, border) the network is trained on only when
+ * they are read, i.e. while a batch is filled.
+ */
+class CompactLabels {
+
+	static final int BACKGROUND = 0;
+	static final int FOREGROUND = 1;
+	static final int BORDER = 2;
+	// pixels of unlabeled tiles, expanded to zero in all channels
+	static final int UNLABELED = 3;
+
+	static final int NUM_CLASSES = 3;
+
+	/**
+	 * @param oneHot one-hot labeling of shape (x, y[, z], 3) with min 0
+	 * @return class index image of shape (x, y[, z])
+	 */
+	static ArrayImg<UnsignedByteType, ?> compact(RandomAccessibleInterval<FloatType> oneHot) {
+		int channelDim = oneHot.numDimensions() - 1;
+		long[] dims = new long[channelDim];
+		for (int i = 0; i < dims.length; i++) {
+			dims[i] = oneHot.dimension(i);
+		}
+		ArrayImg<UnsignedByteType, ?> classIndex = ArrayImgs.unsignedBytes(dims);
+		Cursor<UnsignedByteType> cursor = classIndex.localizingCursor();
+		RandomAccess<FloatType> oneHotRA = oneHot.randomAccess();
+		while (cursor.hasNext()) {
+			cursor.next();
+			for (int i = 0; i < channelDim; i++) {
+				oneHotRA.setPosition(cursor.getLongPosition(i), i);
+			}
+			cursor.get().set(classIndex(oneHotRA, channelDim));
+		}
+		return classIndex;
+	}
+
+	private static int classIndex(RandomAccess<FloatType> oneHotRA, int channelDim) {
+		for (int c = 0; c < NUM_CLASSES; c++) {
+			oneHotRA.setPosition(c, channelDim);
+			if (oneHotRA.get().get() != 0) return c;
+		}
+		return UNLABELED;
+	}
+
+	/**
+	 * @return a class index image of shape {@code dims} in which all pixels are unlabeled
+	 */
+	static ArrayImg<UnsignedByteType, ?> unlabeled(long... dims) {
+		ArrayImg<UnsignedByteType, ?> classIndex = ArrayImgs.unsignedBytes(dims);
+		classIndex.forEach(pixel -> pixel.set(UNLABELED));
+		return classIndex;
+	}
+
+	/**
+	 * @param classIndex class index image of shape (x, y[, z])
+	 * @return lazy one-hot view of shape (x, y[, z], 3)
+	 */
+	static RandomAccessibleInterval<FloatType> expand(RandomAccessibleInterval<UnsignedByteType> classIndex) {
+		List<RandomAccessibleInterval<FloatType>> channels = new ArrayList<>(NUM_CLASSES);
+		for (int c = 0; c < NUM_CLASSES; c++) {
+			final int channel = c;
+			Converter<UnsignedByteType, FloatType> converter = (input, output) -> output.set(input.get() == channel ? 1 : 0);
+			channels.add(Converters.convert(classIndex, converter, new FloatType()));
+		}
+		return Views.stack(channels);
+	}
+}
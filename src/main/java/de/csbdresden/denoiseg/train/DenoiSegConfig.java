@@ -28,7 +28,23 @@
  */
 package de.csbdresden.denoiseg.train;
 
+import java.io.File;
+import java.util.Random;
+
 public class DenoiSegConfig {
+
+	public enum GraphOptimizerLevel {
+		DEFAULT, L0, L1
+	}
+
+	public enum ConsoleFormat {
+		HUMAN, MACHINE
+	}
+
+	public enum RawStorage {
+		FLOAT32, FLOAT16, BFLOAT16
+	}
+
 	private int numEpochs = 300;
 	private int trainBatchSize = 180;
 	private int trainPatchShape = 60;
@@ -37,6 +53,29 @@ public class DenoiSegConfig {
 	private int trainDimensions = 2;
 	private float learningRate = 0.0004f;
 	private int networkDepth = 4;
+	private int validationThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 4));
+	private int intraOpThreads = 0;
+	private int interOpThreads = 0;
+	private int workerThreads = 0;
+	private boolean allowMemoryGrowth = false;
+	private double memoryFraction = 0;
+	private GraphOptimizerLevel optimizerLevel = GraphOptimizerLevel.DEFAULT;
+	private int earlyStoppingPatience = 0;
+	private float earlyStoppingMinDelta = 0.0001f;
+	private boolean restoreBestModel = false;
+	private File metricsLog = null;
+	private long memoryBudget = 0;
+	private boolean autoBatchSize = false;
+	private long seed = new Random().nextLong();
+	private long progressInterval = 1000;
+	private ConsoleFormat consoleFormat = ConsoleFormat.HUMAN;
+	private int previewInterval = 1;
+	private File tileStoreDirectory = null;
+	private RawStorage rawStorage = RawStorage.FLOAT32;
+	private long imageCacheSize = 0;
+	private int chunkCacheSize = 1024;
+	private File bundleExport = null;
+	private boolean measureHalo = false;
 
 	public DenoiSegConfig setStepsPerEpoch(final int steps) {
 		stepsPerEpoch = steps;
@@ -68,6 +107,228 @@ public class DenoiSegConfig {
 		return this;
 	}
 
+	public DenoiSegConfig setValidationThreads(int threads) {
+		this.validationThreads = threads;
+		return this;
+	}
+
+	/**
+	 * @param threads number of threads TensorFlow uses within one operation, 0 lets TensorFlow decide
+	 */
+	public DenoiSegConfig setIntraOpThreads(int threads) {
+		this.intraOpThreads = threads;
+		return this;
+	}
+
+	/**
+	 * @param threads number of operations TensorFlow runs in parallel, 0 lets TensorFlow decide
+	 */
+	public DenoiSegConfig setInterOpThreads(int threads) {
+		this.interOpThreads = threads;
+		return this;
+	}
+
+	/**
+	 * @param threads number of threads for the work of the training on the Java side, i.e. blind-spot sampling,
+	 *                preview rendering and prefetching of images. 0 uses the common fork join pool.
+	 */
+	public DenoiSegConfig setWorkerThreads(int threads) {
+		this.workerThreads = threads;
+		return this;
+	}
+
+	public DenoiSegConfig setAllowMemoryGrowth(boolean allowGrowth) {
+		this.allowMemoryGrowth = allowGrowth;
+		return this;
+	}
+
+	/**
+	 * @param fraction fraction of the device memory TensorFlow may allocate, 0 uses the TensorFlow default
+	 */
+	public DenoiSegConfig setMemoryFraction(double fraction) {
+		this.memoryFraction = fraction;
+		return this;
+	}
+
+	public DenoiSegConfig setOptimizerLevel(GraphOptimizerLevel level) {
+		this.optimizerLevel = level;
+		return this;
+	}
+
+	/**
+	 * @param patience number of epochs without validation loss improvement before the training stops, 0 disables early stopping
+	 */
+	public DenoiSegConfig setEarlyStoppingPatience(int patience) {
+		this.earlyStoppingPatience = patience;
+		return this;
+	}
+
+	public DenoiSegConfig setEarlyStoppingMinDelta(float minDelta) {
+		this.earlyStoppingMinDelta = minDelta;
+		return this;
+	}
+
+	/**
+	 * @param restoreBest if the training is stopped early, export the model with the lowest validation loss as latest model
+	 */
+	public DenoiSegConfig setRestoreBestModel(boolean restoreBest) {
+		this.restoreBestModel = restoreBest;
+		return this;
+	}
+
+	/**
+	 * @param metricsLog file to which the timing metrics of each epoch are appended as one JSON line, or null
+	 */
+	public DenoiSegConfig setMetricsLog(File metricsLog) {
+		this.metricsLog = metricsLog;
+		return this;
+	}
+
+	/**
+	 * @param bytes memory the training may use according to the {@link MemoryEstimator}, 0 disables the check.
+	 * Images added from files are checked with their sizes from the image metadata before they are loaded.
+	 */
+	public DenoiSegConfig setMemoryBudget(long bytes) {
+		this.memoryBudget = bytes;
+		return this;
+	}
+
+	/**
+	 * @param autoBatchSize reduce the batch size to the largest one fitting the memory budget instead of failing,
+	 * the training continues with a copy of this config
+	 */
+	public DenoiSegConfig setAutoBatchSize(boolean autoBatchSize) {
+		this.autoBatchSize = autoBatchSize;
+		return this;
+	}
+
+	/**
+	 * @param seed seed of all random streams used for shuffling and sampling the training data,
+	 *             trainings with the same seed and data generate identical batches
+	 */
+	public DenoiSegConfig setSeed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	/**
+	 * @param millis minimum time between two progress reports in the console and the UI, 0 reports every step
+	 */
+	public DenoiSegConfig setProgressInterval(long millis) {
+		this.progressInterval = millis;
+		return this;
+	}
+
+	/**
+	 * @param epochs number of epochs between two updates of the validation preview, the last epoch always updates it
+	 */
+	public DenoiSegConfig setPreviewInterval(int epochs) {
+		this.previewInterval = epochs;
+		return this;
+	}
+
+	/**
+	 * @param directory directory in which the training and validation tiles are kept in memory-mapped files
+	 *                  instead of the Java heap, or null to keep them on the heap
+	 */
+	public DenoiSegConfig setTileStoreDirectory(File directory) {
+		this.tileStoreDirectory = directory;
+		return this;
+	}
+
+	/**
+	 * @param storage precision in which the normalized raw tiles are kept in memory. 16 bit storage halves the memory
+	 *                of the tiles, the values are widened to 32 bit floats when a batch is filled.
+	 */
+	public DenoiSegConfig setRawStorage(RawStorage storage) {
+		this.rawStorage = storage;
+		return this;
+	}
+
+	/**
+	 * @param bytes size of the cache for images loaded from folders. If positive, only the file names and dimensions
+	 *              of the images are kept, they are decoded on demand and the least recently used ones are dropped.
+	 *              0 keeps all loaded images in memory.
+	 */
+	public DenoiSegConfig setImageCacheSize(long bytes) {
+		this.imageCacheSize = bytes;
+		return this;
+	}
+
+	/**
+	 * @param chunks maximum number of blocks per dataset which are kept in memory when training on chunked N5 containers
+	 */
+	public DenoiSegConfig setChunkCacheSize(int chunks) {
+		this.chunkCacheSize = chunks;
+		return this;
+	}
+
+	/**
+	 * @param file file to which the prepared training tiles and validation batches are written before the first epoch,
+	 *             trainings on other machines can start from it with {@link InputHandler#addBundle(File)}. Null to not write a bundle.
+	 */
+	public DenoiSegConfig setBundleExport(File file) {
+		this.bundleExport = file;
+		return this;
+	}
+
+	/**
+	 * @param measure if true, the halo written into the specification of an exported model is measured with an
+	 *                impulse response of the exported weights instead of being derived from the network architecture.
+	 *                This costs two predictions of a tile of twice the theoretical halo per export.
+	 */
+	public DenoiSegConfig setMeasureHalo(boolean measure) {
+		this.measureHalo = measure;
+		return this;
+	}
+
+	/**
+	 * @param format whether the console progress is printed for humans or as JSON lines
+	 */
+	public DenoiSegConfig setConsoleFormat(ConsoleFormat format) {
+		this.consoleFormat = format;
+		return this;
+	}
+
+	/**
+	 * @return a new config with the same settings
+	 */
+	public DenoiSegConfig copy() {
+		DenoiSegConfig copy = new DenoiSegConfig();
+		copy.numEpochs = numEpochs;
+		copy.trainBatchSize = trainBatchSize;
+		copy.trainPatchShape = trainPatchShape;
+		copy.stepsPerEpoch = stepsPerEpoch;
+		copy.neighborhoodRadius = neighborhoodRadius;
+		copy.trainDimensions = trainDimensions;
+		copy.learningRate = learningRate;
+		copy.networkDepth = networkDepth;
+		copy.validationThreads = validationThreads;
+		copy.intraOpThreads = intraOpThreads;
+		copy.interOpThreads = interOpThreads;
+		copy.workerThreads = workerThreads;
+		copy.allowMemoryGrowth = allowMemoryGrowth;
+		copy.memoryFraction = memoryFraction;
+		copy.optimizerLevel = optimizerLevel;
+		copy.earlyStoppingPatience = earlyStoppingPatience;
+		copy.earlyStoppingMinDelta = earlyStoppingMinDelta;
+		copy.restoreBestModel = restoreBestModel;
+		copy.metricsLog = metricsLog;
+		copy.memoryBudget = memoryBudget;
+		copy.autoBatchSize = autoBatchSize;
+		copy.seed = seed;
+		copy.progressInterval = progressInterval;
+		copy.consoleFormat = consoleFormat;
+		copy.previewInterval = previewInterval;
+		copy.tileStoreDirectory = tileStoreDirectory;
+		copy.rawStorage = rawStorage;
+		copy.imageCacheSize = imageCacheSize;
+		copy.chunkCacheSize = chunkCacheSize;
+		copy.bundleExport = bundleExport;
+		copy.measureHalo = measureHalo;
+		return copy;
+	}
+
 	public int getTrainDimensions() {
 		return trainDimensions;
 	}
@@ -92,6 +353,98 @@ public class DenoiSegConfig {
 		return neighborhoodRadius;
 	}
 
+	public int getValidationThreads() {
+		return validationThreads;
+	}
+
+	public int getIntraOpThreads() {
+		return intraOpThreads;
+	}
+
+	public int getWorkerThreads() {
+		return workerThreads;
+	}
+
+	public int getInterOpThreads() {
+		return interOpThreads;
+	}
+
+	public boolean getAllowMemoryGrowth() {
+		return allowMemoryGrowth;
+	}
+
+	public double getMemoryFraction() {
+		return memoryFraction;
+	}
+
+	public GraphOptimizerLevel getOptimizerLevel() {
+		return optimizerLevel;
+	}
+
+	public int getEarlyStoppingPatience() {
+		return earlyStoppingPatience;
+	}
+
+	public float getEarlyStoppingMinDelta() {
+		return earlyStoppingMinDelta;
+	}
+
+	public boolean getRestoreBestModel() {
+		return restoreBestModel;
+	}
+
+	public File getMetricsLog() {
+		return metricsLog;
+	}
+
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	public boolean getAutoBatchSize() {
+		return autoBatchSize;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public long getProgressInterval() {
+		return progressInterval;
+	}
+
+	public ConsoleFormat getConsoleFormat() {
+		return consoleFormat;
+	}
+
+	public int getPreviewInterval() {
+		return previewInterval;
+	}
+
+	public File getTileStoreDirectory() {
+		return tileStoreDirectory;
+	}
+
+	public RawStorage getRawStorage() {
+		return rawStorage;
+	}
+
+	public long getImageCacheSize() {
+		return imageCacheSize;
+	}
+
+	public int getChunkCacheSize() {
+		return chunkCacheSize;
+	}
+
+	public File getBundleExport() {
+		return bundleExport;
+	}
+
+	public boolean getMeasureHalo() {
+		return measureHalo;
+	}
+
 	public float getLearningRate() {
 		return learningRate;
 	}
@@ -245,18 +245,18 @@ public class DenoiSegDataGenerator {
 			IntervalView<T> r1B = Views.zeroMin(Views.rotate(patch.outSegment, 0, 1));
 			IntervalView<T> r2A = Views.zeroMin(Views.rotate(r1A, 0, 1));
 			IntervalView<T> r2B = Views.zeroMin(Views.rotate(r1B, 0, 1));
-			augmented.add(new TrainingData<>(r1A, r1B));
-			augmented.add(new TrainingData<>(r2A, r2B));
+			augmented.add(new TrainingData<>(r1A, r1B, patch.source));
+			augmented.add(new TrainingData<>(r2A, r2B, patch.source));
 			IntervalView<T> r3A = Views.zeroMin(Views.rotate(r2A, 0, 1));
 			IntervalView<T> r3B = Views.zeroMin(Views.rotate(r2B, 0, 1));
-			augmented.add(new TrainingData<>(r3A, r3B));
+			augmented.add(new TrainingData<>(r3A, r3B, patch.source));
 		});
 		patches.addAll(augmented);
 		augmented.clear();
 		for (TrainingData<T> patch : patches) {
 			IntervalView<T> iA = Views.zeroMin(Views.invertAxis(patch.input, 0));
 			IntervalView<T> iB = Views.zeroMin(Views.invertAxis(patch.outSegment, 0));
-			augmented.add(new TrainingData<>(iA, iB));
+			augmented.add(new TrainingData<>(iA, iB, patch.source));
 		}
 		patches.addAll(augmented);
 	}
@@ -39,8 +39,10 @@ import net.imglib2.img.Img;
 import net.imglib2.img.array.ArrayImgFactory;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Intervals;
 import net.imglib2.util.Pair;
+import net.imglib2.util.Util;
 import net.imglib2.util.ValuePair;
 import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
@@ -50,6 +52,9 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 public class DenoiSegDataWrapper<T extends RealType<T> & NativeType<T>> {
 
@@ -60,8 +65,14 @@ public class DenoiSegDataWrapper<T extends RealType<T> & NativeType<T>> {
 	private final Dimensions range;
 	private final long numChannels;
 	private final long box_size;
-	private static int local_sub_patch_radius = 5;
+	private final int local_sub_patch_radius;
 	private final ValueManipulatorConsumer<T> manipulator;
+	private final BlindSpotSampler3D sampler3D;
+	private final SplittableRandom random;
+	private ImageBlockOrder blockOrder;
+	private int[] tensorMapping;
+	private TrainingMetrics metrics = new TrainingMetrics();
+	private ForkJoinPool workerPool;
 
 	public long size() {
 		return XY.size();
@@ -73,15 +84,29 @@ public class DenoiSegDataWrapper<T extends RealType<T> & NativeType<T>> {
 	}
 
 	interface ValueManipulatorConsumer<U> {
-		double accept(IntervalView<U> patch, Point coord);
+		double accept(IntervalView<U> patch, Point coord, int neighborhoodRadius, SplittableRandom random);
+	}
+
+	private static final ValueManipulatorConsumer<FloatType> UNIFORM_WITH_CP = DenoiSegDataWrapper::uniform_withCP;
+
+	/**
+	 * @return {@link #uniform_withCP} as manipulator which 3D wrappers replace by the faster {@link BlindSpotSampler3D}
+	 */
+	@SuppressWarnings("unchecked")
+	static <T extends RealType<T> & NativeType<T>> ValueManipulatorConsumer<T> uniformWithCP() {
+		return (ValueManipulatorConsumer<T>) (ValueManipulatorConsumer<?>) UNIFORM_WITH_CP;
 	}
 
 	private static <T> double value_manipulate(
-			ValueManipulatorConsumer<T> c, IntervalView<T> patch, Point coord) {
-		return c.accept(patch, coord);
+			ValueManipulatorConsumer<T> c, IntervalView<T> patch, Point coord, int neighborhoodRadius, SplittableRandom random) {
+		return c.accept(patch, coord, neighborhoodRadius, random);
 	}
 
-	DenoiSegDataWrapper(TrainingDataCollection<T> dataPairs, int batchSize, double perc_pix, Dimensions shape, int neighborhoodRadius, ValueManipulatorConsumer<T> manipulator) {
+	/**
+	 * @param random source of all random decisions of this wrapper. Each batch gets its own split stream,
+	 *               batches are therefore reproducible as long as they are requested in the same order.
+	 */
+	DenoiSegDataWrapper(TrainingDataCollection<T> dataPairs, int batchSize, double perc_pix, Dimensions shape, int neighborhoodRadius, ValueManipulatorConsumer<T> manipulator, SplittableRandom random) {
 
 		XY = new TrainingDataCollection<>();
 		XY.addAll(dataPairs);
@@ -103,6 +128,9 @@ public class DenoiSegDataWrapper<T extends RealType<T> & NativeType<T>> {
 //            self.get_stratified_coords = self.__get_stratified_coords2D__
 
 		this.manipulator = manipulator;
+		this.sampler3D = shape.numDimensions() == 3 && manipulator == (Object) UNIFORM_WITH_CP ?
+				new BlindSpotSampler3D(shape, box_size, neighborhoodRadius) : null;
+		this.random = random;
 	}
 
 	private static <T extends RealType<T> & NativeType<T>> FinalDimensions computeRange(RandomAccessibleInterval<T> firstX, Dimensions shape) {
@@ -121,40 +149,124 @@ public class DenoiSegDataWrapper<T extends RealType<T> & NativeType<T>> {
 		return res;
 	}
 
-	void on_epoch_end() {
-		Collections.shuffle(XY);
+	void setMetrics(TrainingMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Orders the tiles of lazily loaded images in blocks of images which fit into the image cache,
+	 * the tiles are reordered right away and on each epoch end.
+	 */
+	synchronized void setBlockOrder(ImageBlockOrder blockOrder) {
+		this.blockOrder = blockOrder;
+		blockOrder.shuffle(XY, new Random(random.nextLong()));
+	}
+
+	/**
+	 * @param pool the pool the samples of a batch are manipulated on in parallel, null for the common pool
+	 */
+	void setWorkerPool(ForkJoinPool pool) {
+		this.workerPool = pool;
+	}
+
+	/**
+	 * Makes {@link #getItem} store float batches as {@link TensorBatch}, in the layout of the tensors they are fed as.
+	 * @param mapping the tensor dimension of each batch dimension
+	 */
+	void setTensorMapping(int[] mapping) {
+		this.tensorMapping = mapping;
+	}
+
+	synchronized void on_epoch_end() {
+		if(blockOrder != null) blockOrder.shuffle(XY, new Random(random.nextLong()));
+		else Collections.shuffle(XY, new Random(random.nextLong()));
+	}
+
+	private synchronized SplittableRandom nextBatchRandom() {
+		return random.split();
 	}
 
 	ProcessedTrainingData<T> getItem(int i) {
+		SplittableRandom batchRandom = nextBatchRandom();
 		int[] idx = new int[(int) Math.min(batchSize, size() - i*batchSize)];
 		for (int j = 0; j < idx.length; j++) {
 			idx[j] = i * batchSize + j;
 		}
 
-		ProcessedTrainingData<T> patches = subpatch_sampling(idx);
+		if(blockOrder != null) blockOrder.prefetch(i * batchSize);
+
+		long start = metrics.start();
+		List<ProcessedTrainingData<T>> samples = subpatch_sampling(idx, batchRandom);
+		metrics.stop(TrainingMetrics.Phase.SAMPLING, start);
 
-		RandomAccessibleInterval<T> patchX = patches.input;
-		RandomAccessibleInterval<T> patchYDenoise = patches.outDenoise;
 //		uiService.show(patchY);
 
-		for (int j = 0; j < patchX.dimension(batchDim); j++) {
+		// one stream per sample, drawn in order, so that the samples can be manipulated in parallel
+		int numSamples = samples.size();
+		SplittableRandom[] sampleRandoms = new SplittableRandom[numSamples];
+		for (int j = 0; j < numSamples; j++) {
+			sampleRandoms[j] = batchRandom.split();
+		}
+		start = metrics.start();
+		Runnable manipulateSamples = () -> IntStream.range(0, numSamples).parallel().forEach(j -> {
 //            for c in range(self.n_chan):
-			IntervalView<T> patchXSlice = Views.hyperSlice(patchX, batchDim, j);
-			IntervalView<T> patchYSlice = Views.hyperSlice(patchYDenoise, batchDim, j);
-			manipulateX(box_size, shape, patchXSlice, patchYSlice, numChannels, manipulator);
+			ProcessedTrainingData<T> sample = samples.get(j);
+			if(sampler3D != null && sampler3D.manipulate(sample.input, sample.outDenoise, sampleRandoms[j])) return;
+			IntervalView<T> patchXSlice = Views.hyperSlice(sample.input, batchDim, 0);
+			IntervalView<T> patchYSlice = Views.hyperSlice(sample.outDenoise, batchDim, 0);
+			manipulateX(box_size, shape, patchXSlice, patchYSlice, numChannels, manipulator, local_sub_patch_radius, sampleRandoms[j]);
+		});
+		WorkerPools.run(workerPool, manipulateSamples);
+		metrics.stop(TrainingMetrics.Phase.BLIND_SPOT, start);
+
+		List<RandomAccessibleInterval<T>> xPatches = new ArrayList<>(numSamples);
+		List<RandomAccessibleInterval<T>> yPatchesDenoise = new ArrayList<>(numSamples);
+		List<RandomAccessibleInterval<T>> yPatchesSegment = new ArrayList<>(numSamples);
+		for (ProcessedTrainingData<T> sample : samples) {
+			xPatches.add(sample.input);
+			yPatchesDenoise.add(sample.outDenoise);
+			yPatchesSegment.add(sample.outSegment);
+		}
+		return new ProcessedTrainingData<>(
+				stack(xPatches),
+				stack(yPatchesDenoise),
+				stack(yPatchesSegment));
+	}
+
+	@SuppressWarnings("unchecked")
+	private RandomAccessibleInterval<T> stack(List<RandomAccessibleInterval<T>> samples) {
+		if(tensorMapping == null || !(Util.getTypeFromInterval(samples.get(0)) instanceof FloatType)) {
+			return Views.concatenate(batchDim, samples);
 		}
-		return patches;
+		long[] dims = Intervals.dimensionsAsLongArray(samples.get(0));
+		dims[batchDim] = samples.size();
+		TensorBatch batch = new TensorBatch(dims, tensorMapping);
+		long[] min = new long[dims.length];
+		long[] max = new long[dims.length];
+		for (int d = 0; d < dims.length; d++) {
+			max[d] = dims[d] - 1;
+		}
+		for (int j = 0; j < samples.size(); j++) {
+			min[batchDim] = j;
+			max[batchDim] = j;
+			Cursor<T> source = Views.flatIterable(samples.get(j)).cursor();
+			Cursor<FloatType> target = Views.flatIterable(Views.interval(batch, min, max)).cursor();
+			while (source.hasNext()) {
+				target.next().set(source.next().getRealFloat());
+			}
+		}
+		return (RandomAccessibleInterval<T>) (RandomAccessibleInterval<?>) batch;
 	}
 
 	static <T extends RealType<T> & NativeType<T>> void manipulateX(
 			long boxSize, Dimensions shape,
 			RandomAccessibleInterval<T> patchX,
 			RandomAccessibleInterval<T> patchY,
-			long n_chan, ValueManipulatorConsumer<T> manipulator) {
+			long n_chan, ValueManipulatorConsumer<T> manipulator, int neighborhoodRadius, SplittableRandom random) {
 		int c = 0;
 		List<Point> coords = null;
-		if(shape.numDimensions() == 2) coords = get_stratified_coords2D(boxSize, shape);
-		if(shape.numDimensions() == 3) coords = get_stratified_coords3D(boxSize, shape);
+		if(shape.numDimensions() == 2) coords = get_stratified_coords2D(boxSize, shape, random);
+		if(shape.numDimensions() == 3) coords = get_stratified_coords3D(boxSize, shape, random);
 
 		double[] x_val = new double[coords.size()];
 		double[] originalValue = new double[coords.size()];
@@ -174,7 +286,7 @@ public class DenoiSegDataWrapper<T extends RealType<T> & NativeType<T>> {
 
 			IntervalView<T> XInterval = Views.hyperSlice(patchX, shape.numDimensions(), c);
 			XInterval = Views.addDimension(XInterval, 0, 0);
-			x_val[k] = value_manipulate(manipulator, XInterval, point);
+			x_val[k] = value_manipulate(manipulator, XInterval, point, neighborhoodRadius, random);
 		}
 
 		for (int k = 0; k < originalValue.length; k++) {
@@ -200,7 +312,7 @@ public class DenoiSegDataWrapper<T extends RealType<T> & NativeType<T>> {
 		}
 	}
 
-	private static List<Point> get_stratified_coords3D(long box_size, Dimensions shape) {
+	static List<Point> get_stratified_coords3D(long box_size, Dimensions shape, SplittableRandom random) {
 		List<Point> coords = new ArrayList<>();
 		int box_count_x = (int) Math.ceil(shape.dimension(0) / (float)box_size);
 		int box_count_y = (int) Math.ceil(shape.dimension(1) / (float)box_size);
@@ -208,7 +320,7 @@ public class DenoiSegDataWrapper<T extends RealType<T> & NativeType<T>> {
 		for (int i = 0; i < box_count_x; i++) {
 			for (int j = 0; j < box_count_y; j++) {
 				for (int k = 0; k < box_count_z; k++) {
-					Point p = new Point((long)(Math.random() * box_size), (long)(Math.random() * box_size), (long)(Math.random() * box_size));
+					Point p = new Point((long)(random.nextDouble() * box_size), (long)(random.nextDouble() * box_size), (long)(random.nextDouble() * box_size));
 	//                y, x = next(coord_gen)
 					p.setPosition(i * box_size + p.getIntPosition(0), 0);
 					p.setPosition(j * box_size + p.getIntPosition(1), 1);
@@ -224,13 +336,13 @@ public class DenoiSegDataWrapper<T extends RealType<T> & NativeType<T>> {
 		return coords;
 	}
 
-	private static List<Point> get_stratified_coords2D(long box_size, Dimensions shape) {
+	static List<Point> get_stratified_coords2D(long box_size, Dimensions shape, SplittableRandom random) {
 		List<Point> coords = new ArrayList<>();
 		int box_count_x = (int) Math.ceil(shape.dimension(0) / (float)box_size);
 		int box_count_y = (int) Math.ceil(shape.dimension(1) / (float)box_size);
 		for (int i = 0; i < box_count_x; i++) {
 			for (int j = 0; j < box_count_y; j++) {
-				Point p = new Point((long)(Math.random() * box_size), (long)(Math.random() * box_size), 0);
+				Point p = new Point((long)(random.nextDouble() * box_size), (long)(random.nextDouble() * box_size), 0);
 //                y, x = next(coord_gen)
 				p.setPosition(i * box_size + p.getIntPosition(0), 0);
 				p.setPosition(j * box_size + p.getIntPosition(1), 1);
@@ -242,13 +354,12 @@ public class DenoiSegDataWrapper<T extends RealType<T> & NativeType<T>> {
 		return coords;
 	}
 
-	public static <T extends RealType<T> & NativeType<T>> double uniform_withCP(IntervalView<T> patch, Point coord) {
+	public static <T extends RealType<T> & NativeType<T>> double uniform_withCP(IntervalView<T> patch, Point coord, int neighborhoodRadius, SplittableRandom random) {
 //		System.out.println("original coord: " + coord);
-		IntervalView<T> sub_patch = Views.zeroMin(get_subpatch(patch, coord, local_sub_patch_radius));
+		IntervalView<T> sub_patch = Views.zeroMin(get_subpatch(patch, coord, neighborhoodRadius));
 		Point rand_coord = new Point(coord.numDimensions()+1);
-		Random random = new Random();
 		for (int i = 0; i < patch.numDimensions()-1; i++) {
-			rand_coord.setPosition((int)Math.floor(random.nextInt((int) (sub_patch.dimension(i)-1))), i);
+			rand_coord.setPosition(neighborOffset(neighborhoodRadius, random), i);
 		}
 		RandomAccess<T> ra = sub_patch.randomAccess();
 		ra.setPosition(rand_coord);
@@ -256,6 +367,16 @@ public class DenoiSegDataWrapper<T extends RealType<T> & NativeType<T>> {
 		return ra.get().getRealDouble();
 	}
 
+	/**
+	 * Draws the position of the replacement value within the window of size {@code 2 * neighborhoodRadius + 1}
+	 * around a blind spot. Shared by all blind-spot samplers so that they draw the same neighbors for the same seed.
+	 * The sub patch returned by {@link #get_subpatch} is one pixel larger than the window because its end is
+	 * inclusive, its last pixel is never drawn.
+	 */
+	static int neighborOffset(int neighborhoodRadius, SplittableRandom random) {
+		return random.nextInt(neighborhoodRadius * 2 + 1);
+	}
+
 	private static <T extends RealType<T> & NativeType<T>> IntervalView<T> get_subpatch(IntervalView<T> patch, Point coord, int local_sub_patch_radius) {
 
 		Point start = new Point(patch.numDimensions());
@@ -280,13 +401,10 @@ public class DenoiSegDataWrapper<T extends RealType<T> & NativeType<T>> {
 
 	}
 
-	private ProcessedTrainingData<T> subpatch_sampling(int[] idx) {
+	private List<ProcessedTrainingData<T>> subpatch_sampling(int[] idx, SplittableRandom r) {
 
-		List<RandomAccessibleInterval<T>> xPatches = new ArrayList<>();
-		List<RandomAccessibleInterval<T>> yPatchesDenoise = new ArrayList<>();
-		List<RandomAccessibleInterval<T>> yPatchesSegment = new ArrayList<>();
+		List<ProcessedTrainingData<T>> samples = new ArrayList<>(idx.length);
 
-		Random r = new Random();
 		for (int i = 0; i < idx.length; i++) {
 			int batchIndex = idx[i];
 
@@ -316,20 +434,15 @@ public class DenoiSegDataWrapper<T extends RealType<T> & NativeType<T>> {
 			RandomAccessibleInterval<T> patchX = getPatch(XY.get(batchIndex).input, new FinalInterval(startX, endX));
 //			System.out.println(Arrays.toString(startX) + " " + Arrays.toString(endLabeling));
 			RandomAccessibleInterval<T> patchLabeling = getPatchLabeling(XY.get(batchIndex).outSegment, new FinalInterval(startX, endLabeling));
-			xPatches.add(patchX);
 			FinalDimensions dimY = new FinalDimensions(endY);
 //			Y_Patches.add(opService.create().img(dimY, patchX.randomAccess().get()));
 			RandomAccessibleInterval<T> patchY = new ArrayImgFactory<>(patchX.randomAccess().get()).create(dimY);
 //			System.out.println(Arrays.toString(Intervals.dimensionsAsIntArray(patchLabeling)) + " " + Arrays.toString(Intervals.dimensionsAsIntArray(patchY)));
-			yPatchesDenoise.add(patchY);
-			yPatchesSegment.add(patchLabeling);
+			samples.add(new ProcessedTrainingData<>(patchX, patchY, patchLabeling));
 //			if(i == 0) uiService.show(patchY);
 //	    Y_Batches[batchIndex] = Y[batchIndex, y_start:y_start + shape[0], x_start:x_start + shape[1]]
 		}
-		return new ProcessedTrainingData<>(
-				Views.concatenate(shape.numDimensions(), xPatches),
-				Views.concatenate(shape.numDimensions(), yPatchesDenoise),
-				Views.concatenate(shape.numDimensions(), yPatchesSegment));
+		return samples;
 	}
 
 	private RandomAccessibleInterval<T> getPatch(RandomAccessibleInterval<T> source, FinalInterval interval) {
@@ -42,6 +42,7 @@ import io.bioimage.specification.transformation.ZeroMeanUnitVarianceTransformati
 import io.bioimage.specification.weights.TensorFlowSavedModelBundleSpecification;
 import net.imagej.modelzoo.specification.ImageJModelSpecification;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
@@ -58,6 +59,7 @@ public class DenoiSegModelSpecification extends ImageJModelSpecification {
 	private final static String idTrainingKwargsPatchShape = "patchShape";
 	private final static String idTrainingKwargsNeighborhoodRadius = "neighborhoodRadius";
 	private final static String idTrainingKwargsStepsFinished = "stepsFinished";
+	private final static String idTrainingKwargsSeed = "seed";
 	private final static String citationText = "Tim-Oliver Buchholz and Mangal Prakash and Alexander Krull and Florian Jug. DenoiSeg: Joint Denoising and Segmentation. (2020)";
 	private final static String doiText = "https://arxiv.org/abs/2005.02987";
 	private final static List<String> tags = Arrays.asList("denoising", "segmentation", "unet2d");
@@ -99,6 +101,7 @@ public class DenoiSegModelSpecification extends ImageJModelSpecification {
 		trainingKwargs.put(idTrainingKwargsNumStepsPerEpoch, config.getStepsPerEpoch());
 		trainingKwargs.put(idTrainingKwargsPatchShape, config.getTrainPatchShape());
 		trainingKwargs.put(idTrainingKwargsStepsFinished, stepsFinished);
+		trainingKwargs.put(idTrainingKwargsSeed, config.getSeed());
 		setTrainingStats(trainingSource, trainingKwargs);
 	}
 
@@ -113,7 +116,7 @@ public class DenoiSegModelSpecification extends ImageJModelSpecification {
 		List<Integer> modelOutputOffsetSegment;
 		String modelNodeAxes;
 		int min = (int) Math.pow(2, config.getNetworkDepth());
-		int halo = 96;
+		int halo = ReceptiveField.halo(config.getNetworkDepth());
 		if(config.getTrainDimensions() == 2) {
 			modelNodeAxes = "byxc";
 			modelInputMin = Arrays.asList(1, min, min, 1);
@@ -178,6 +181,19 @@ public class DenoiSegModelSpecification extends ImageJModelSpecification {
 		addOutputNode(segmentOutput);
 	}
 
+	/**
+	 * Replaces the halo of the spatial axes of all outputs, e.g. with a measured one.
+	 */
+	void setHalo(int halo) {
+		for (OutputNodeSpecification output : getOutputs()) {
+			List<Integer> outputHalo = new ArrayList<>();
+			for (char axis : output.getAxes().toCharArray()) {
+				outputHalo.add(axis == 'x' || axis == 'y' || axis == 'z' ? halo : 0);
+			}
+			output.setHalo(outputHalo);
+		}
+	}
+
 	private void setMeta(DenoiSegOutputHandler outputHandler) {
 		CitationSpecification citation = new DefaultCitationSpecification();
 		citation.setCitationText(citationText);
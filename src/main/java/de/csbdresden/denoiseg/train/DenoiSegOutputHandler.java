@@ -29,22 +29,38 @@
 package de.csbdresden.denoiseg.train;
 
 import io.bioimage.specification.ModelSpecification;
+import io.bioimage.specification.io.SpecificationReader;
+import io.bioimage.specification.io.SpecificationWriter;
 import net.imagej.modelzoo.ImageTensorSample;
 import net.imagej.modelzoo.consumer.model.tensorflow.train.AbstractOutputHandler;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.real.FloatType;
+import org.apache.commons.io.FileUtils;
 import org.scijava.Context;
+import org.scijava.log.LogService;
 import org.tensorflow.Graph;
+import org.tensorflow.SavedModelBundle;
 import org.tensorflow.Session;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 public class DenoiSegOutputHandler extends AbstractOutputHandler {
 
 	private final DenoiSegConfig config;
 	private final DenoiSegTraining training;
+	private final LogService logService;
 	private FloatType mean = new FloatType();
 
 	private FloatType stdDev = new FloatType();
@@ -55,16 +71,19 @@ public class DenoiSegOutputHandler extends AbstractOutputHandler {
 	private float currentSegLoss = Float.MAX_VALUE;
 	private float currentValidationLoss = Float.MAX_VALUE;
 	private float bestValidationLoss = Float.MAX_VALUE;
+	private int bestEpoch = 0;
 
 	private final static String defaultSampleInput = "sample_in.tif";
 	private final static String defaultSampleOutput = "sample_out.tif";
 	private double threshold = 0.5; //TODO calculate from validation data
+	private boolean exportBestAsLatest = false;
 
 	DenoiSegOutputHandler(DenoiSegConfig config, DenoiSegTraining training, Context context) {
 		super(context);
 		this.config = config;
 		this.currentLearningRate = config.getLearningRate();
 		this.training = training;
+		this.logService = context.service(LogService.class);
 	}
 
 	@Override
@@ -95,10 +114,80 @@ public class DenoiSegOutputHandler extends AbstractOutputHandler {
 	protected void copyBestModel() {
 		if(bestValidationLoss > currentValidationLoss) {
 			bestValidationLoss = currentValidationLoss;
+			bestEpoch = training.getStepsFinished() / config.getStepsPerEpoch();
 			super.copyBestModel();
 		}
 	}
 
+	@Override
+	public File exportLatestTrainedModel() throws IOException {
+		if(exportBestAsLatest) return exportBestTrainedModel();
+		return withMeasuredHalo(super.exportLatestTrainedModel());
+	}
+
+	@Override
+	public File exportBestTrainedModel() throws IOException {
+		return withMeasuredHalo(super.exportBestTrainedModel());
+	}
+
+	/**
+	 * If enabled by {@link DenoiSegConfig#setMeasureHalo(boolean)}, measures the halo of the weights in the
+	 * exported archive and writes it into the specification of the archive. The theoretical halo is kept if
+	 * the measurement fails.
+	 */
+	private File withMeasuredHalo(File archive) throws IOException {
+		if(!config.getMeasureHalo() || archive == null) return archive;
+		Path tmpDir = Files.createTempDirectory("denoiseg-halo");
+		try (FileSystem zip = FileSystems.newFileSystem(URI.create("jar:" + archive.toURI()), Collections.emptyMap())) {
+			Path weights = zip.getPath(getSavedModelBundlePackage().replaceFirst("^\\./", ""));
+			Path savedModel = tmpDir.resolve("saved_model");
+			unzip(weights, savedModel);
+			int halo;
+			try (SavedModelBundle bundle = SessionConfig.loadSavedModel(savedModel.toString(), config)) {
+				String learningPhaseOp = bundle.graph().operation(DenoiSegTraining.trainingFeedLearningPhaseOp) != null
+						? DenoiSegTraining.trainingFeedLearningPhaseOp : null;
+				halo = ReceptiveField.measureHalo(bundle.session(), config.getTrainDimensions(),
+						ReceptiveField.probeSize(config.getNetworkDepth()), DenoiSegTraining.predictionFeedInputOp, learningPhaseOp,
+						Arrays.asList(DenoiSegTraining.predictionTargetDenoiseOp, DenoiSegTraining.predictionTargetSegmentOp));
+			} catch (RuntimeException e) {
+				logService.warn("Could not measure the halo of " + archive + ", keeping the theoretical halo of "
+						+ ReceptiveField.halo(config.getNetworkDepth()), e);
+				return archive;
+			}
+			logService.info("Measured halo: " + halo + " (theoretical: " + ReceptiveField.halo(config.getNetworkDepth()) + ")");
+			DenoiSegModelSpecification spec = new DenoiSegModelSpecification();
+			SpecificationReader.readFromZIP(archive, spec);
+			spec.setHalo(halo);
+			File specDir = tmpDir.resolve("spec").toFile();
+			Files.createDirectories(specDir.toPath());
+			SpecificationWriter.write(spec, specDir);
+			String specName = SpecificationWriter.getModelFileName();
+			Files.copy(new File(specDir, specName).toPath(), zip.getPath(specName), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			FileUtils.deleteDirectory(tmpDir.toFile());
+		}
+		return archive;
+	}
+
+	private static void unzip(Path zipFile, Path target) throws IOException {
+		try (ZipInputStream in = new ZipInputStream(Files.newInputStream(zipFile))) {
+			for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+				Path file = target.resolve(entry.getName()).normalize();
+				if(!file.startsWith(target)) throw new IOException("Invalid entry " + entry.getName() + " in " + zipFile);
+				if(entry.isDirectory()) {
+					Files.createDirectories(file);
+				} else {
+					Files.createDirectories(file.getParent());
+					Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+				}
+			}
+		}
+	}
+
+	void setExportBestAsLatest(boolean exportBestAsLatest) {
+		this.exportBestAsLatest = exportBestAsLatest;
+	}
+
 	void saveCheckpoint(Session sess, RandomAccessibleInterval<FloatType> exampleInput,
 	                    RandomAccessibleInterval<FloatType> exampleOutput) {
 		super.saveCheckpoint(sess,
@@ -138,6 +227,17 @@ public class DenoiSegOutputHandler extends AbstractOutputHandler {
 		this.currentSegLoss = abs;
 	}
 
+	public float getBestValidationLoss() {
+		return bestValidationLoss;
+	}
+
+	/**
+	 * @return the epoch (starting with 1) of the model with the lowest validation loss, 0 if no epoch finished yet
+	 */
+	public int getBestEpoch() {
+		return bestEpoch;
+	}
+
 	float getCurrentValidationLoss() {
 		return currentValidationLoss;
 	}
@@ -0,0 +1,187 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import org.scijava.Context;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * Trains several configurations on the same data. The images are loaded and their normalization
+ * statistics computed once, each trial only tiles the shared images according to its config.
+ * The trials run through a {@link DenoiSegTrainingManager}, which bounds how many of them run at once.
+ */
+public class DenoiSegSweep {
+
+	public static class TrialResult {
+		public final DenoiSegConfig config;
+		public final boolean finished;
+		public final int epochs;
+		public final int bestEpoch;
+		public final float bestValidationLoss;
+		public final double secondsToBest;
+		public final double seconds;
+		public final File bestModel;
+
+		TrialResult(DenoiSegConfig config, boolean finished, int epochs, int bestEpoch, float bestValidationLoss,
+		            double secondsToBest, double seconds, File bestModel) {
+			this.config = config;
+			this.finished = finished;
+			this.epochs = epochs;
+			this.bestEpoch = bestEpoch;
+			this.bestValidationLoss = bestValidationLoss;
+			this.secondsToBest = secondsToBest;
+			this.seconds = seconds;
+			this.bestModel = bestModel;
+		}
+	}
+
+	private static class TrialProgress {
+		private long start;
+		private int epochs = 0;
+		private float bestLoss = Float.MAX_VALUE;
+		private long bestTime;
+	}
+
+	private final DenoiSegTrainingManager manager;
+	private final TrainingSources sources;
+
+	public DenoiSegSweep(DenoiSegTrainingManager manager, TrainingSources sources) {
+		this.manager = manager;
+		this.sources = sources;
+	}
+
+	/**
+	 * Loads the images once without tiling them, each trial tiles them according to its own config.
+	 * If training and validation folders are the same, the validation data is split from the training data.
+	 */
+	public static TrainingSources load(Context context, File trainingRawData, File trainingLabelingData,
+	                                   File validationRawData, File validationLabelingData) throws IOException {
+		// the config only provides the seed for the order of the files, the images are not tiled
+		InputHandler input = new InputHandler(context, new DenoiSegConfig());
+		input.setSourcesOnly(true);
+		if(trainingRawData.getAbsolutePath().equals(validationRawData.getAbsolutePath()) &&
+				trainingLabelingData.getAbsolutePath().equals(validationLabelingData.getAbsolutePath())) {
+			input.addTrainingAndValidationData(trainingRawData, trainingLabelingData);
+		} else {
+			input.addTrainingData(trainingRawData, trainingLabelingData);
+			input.addValidationData(validationRawData, validationLabelingData);
+		}
+		input.getSources().computeStatistics();
+		return input.getSources();
+	}
+
+	/**
+	 * @return one config per combination of the given values, all other settings are taken from {@code base}
+	 */
+	public static List<DenoiSegConfig> grid(Supplier<DenoiSegConfig> base, int[] patchShapes, int[] neighborhoodRadii, float[] learningRates) {
+		List<DenoiSegConfig> configs = new ArrayList<>();
+		for (int patchShape : patchShapes) {
+			for (int radius : neighborhoodRadii) {
+				for (float learningRate : learningRates) {
+					DenoiSegConfig config = base.get().setPatchShape(patchShape).setNeighborhoodRadius(radius);
+					config.setLearningRate(learningRate);
+					configs.add(config);
+				}
+			}
+		}
+		return configs;
+	}
+
+	/**
+	 * Trains all configs and waits for them to finish.
+	 */
+	public List<TrialResult> run(List<DenoiSegConfig> configs) throws InterruptedException {
+		List<Future<DenoiSegTraining>> futures = new ArrayList<>();
+		List<TrialProgress> progresses = new ArrayList<>();
+		for (DenoiSegConfig config : configs) {
+			TrialProgress progress = new TrialProgress();
+			progresses.add(progress);
+			futures.add(manager.submit(config, training -> {
+				progress.start = System.nanoTime();
+				training.addCallbackOnEpochDone(t -> {
+					progress.epochs++;
+					float loss = t.output().getCurrentValidationLoss();
+					if(loss < progress.bestLoss) {
+						progress.bestLoss = loss;
+						progress.bestTime = System.nanoTime();
+					}
+				});
+				training.input().addSources(sources);
+			}));
+		}
+		List<TrialResult> results = new ArrayList<>();
+		for (int i = 0; i < configs.size(); i++) {
+			results.add(collect(configs.get(i), futures.get(i), progresses.get(i)));
+		}
+		return results;
+	}
+
+	private TrialResult collect(DenoiSegConfig config, Future<DenoiSegTraining> future, TrialProgress progress) throws InterruptedException {
+		try {
+			DenoiSegTraining training = future.get();
+			double seconds = (System.nanoTime() - progress.start) / 1e9;
+			double secondsToBest = progress.epochs > 0 ? (progress.bestTime - progress.start) / 1e9 : Double.NaN;
+			File bestModel = null;
+			if(!training.isCanceled() && progress.epochs > 0) {
+				bestModel = training.output().exportBestTrainedModel();
+			}
+			return new TrialResult(config, !training.isCanceled(), progress.epochs, training.output().getBestEpoch(),
+					progress.bestLoss, secondsToBest, seconds, bestModel);
+		} catch (ExecutionException | IOException e) {
+			e.printStackTrace();
+			return new TrialResult(config, false, progress.epochs, 0, progress.bestLoss, Double.NaN, Double.NaN, null);
+		}
+	}
+
+	/**
+	 * Writes one tab separated line per trial.
+	 */
+	public static void writeSummary(List<TrialResult> results, File file) throws IOException {
+		try (Writer writer = new FileWriter(file)) {
+			writer.write("patchShape\tneighborhoodRadius\tlearningRate\tbatchSize\tseed\tfinished\tepochs\tbestEpoch\tbestValidationLoss\tsecondsToBest\tseconds\tbestModel\n");
+			for (TrialResult result : results) {
+				writer.write(String.format(Locale.ROOT, "%d\t%d\t%g\t%d\t%d\t%b\t%d\t%d\t%f\t%.1f\t%.1f\t%s\n",
+						result.config.getTrainPatchShape(), result.config.getNeighborhoodRadius(), result.config.getLearningRate(),
+						result.config.getTrainBatchSize(), result.config.getSeed(), result.finished, result.epochs, result.bestEpoch,
+						result.bestValidationLoss, result.secondsToBest, result.seconds,
+						result.bestModel == null ? "" : result.bestModel.getAbsolutePath()));
+			}
+		}
+	}
+}
@@ -62,9 +62,14 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.SplittableRandom;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DenoiSegTraining implements ModelZooTraining {
 
@@ -99,7 +104,7 @@ public class DenoiSegTraining implements ModelZooTraining {
 	private static final String trainingFeedYSegmentOp = "out_segment_target";
 	private static final String trainingFeedSampleWeightsDenoiseOp = "out_denoise_sample_weights";
 	private static final String trainingFeedSampleWeightsSegmentOp = "out_segment_sample_weights";
-	private static final String trainingFeedLearningPhaseOp = "keras_learning_phase";
+	static final String trainingFeedLearningPhaseOp = "keras_learning_phase";
 	// training fetch
 	private static final String trainingFetchLossOp = "loss_tensor";
 	private static final String trainingFetchSegLossOp = "out_segment_loss_tensor";
@@ -121,14 +126,14 @@ public class DenoiSegTraining implements ModelZooTraining {
 	private PreviewHandler previewHandler;
 	private DenoiSegOutputHandler outputHandler;
 	private InputHandler inputHandler;
-	private boolean stopTraining = false;
+	private volatile boolean stopTraining = false;
 
 	private List<TrainingCallback> onEpochDoneCallbacks = new ArrayList<>();
 	private List<TrainingCanceledCallback> onTrainingCanceled = new ArrayList<>();
 
 	private boolean continueTraining = false;
 	private File zipFile;
-	private boolean canceled = false;
+	private volatile boolean canceled = false;
 	private Session session;
 	private DenoiSegConfig config;
 	private int stepsFinished = 0;
@@ -139,7 +144,14 @@ public class DenoiSegTraining implements ModelZooTraining {
 	private Tensor<Float> tensorWeightsDenoise;
 	private ProcessedTrainingDataCollection<FloatType> validationData;
 	private List<Pair<Tensor, Pair<Tensor, Tensor>>> validationTensorData;
+	private BatchTensors batchTensors;
 	private Future<?> future;
+	private ExecutorService validationExecutor;
+	// null if the Java side work runs on the common pool
+	private ForkJoinPool workerPool;
+	private final TrainingMetrics metrics = new TrainingMetrics();
+	private SplittableRandom random;
+	private ProgressReporter progressReporter;
 	private int count = 0;
 
 	public interface TrainingCallback {
@@ -167,8 +179,17 @@ public class DenoiSegTraining implements ModelZooTraining {
 	public void init(DenoiSegConfig config) {
 
 		this.config = config;
+		this.random = new SplittableRandom(config.getSeed());
 
 		inputHandler = new InputHandler(context, config);
+		inputHandler.setMetrics(metrics);
+		// images added from files are checked against the memory budget before they are loaded
+		inputHandler.setMemoryCheck((trainingPixels, validationTiles) -> {
+			if (fitsMemoryBudget(trainingPixels, validationTiles)) return true;
+			cancel();
+			return false;
+		});
+		metrics.setJsonLog(config.getMetricsLog());
 
 		if (Thread.interrupted()) return;
 
@@ -176,13 +197,19 @@ public class DenoiSegTraining implements ModelZooTraining {
 
 		if (Thread.interrupted()) return;
 
+		logService.info("Random seed: " + config.getSeed());
 		logService.info("Load TensorFlow..");
 		tensorFlowService.loadLibrary();
 		logService.info(tensorFlowService.getStatus().getInfo());
 
 		addCallbackOnEpochDone(new ReduceLearningRateOnPlateau()::reduceLearningRateOnPlateau);
+		if (config.getEarlyStoppingPatience() > 0) {
+			addCallbackOnEpochDone(new EarlyStopping(config.getEarlyStoppingPatience(),
+					config.getEarlyStoppingMinDelta(), config.getRestoreBestModel(), logService)::earlyStopping);
+		}
 		addCallbackOnCancel(input()::cancel);
 
+		if (!fitsMemoryBudget(0, 0)) cancel();
 	}
 
 	private void initDialog(DenoiSegConfig config) {
@@ -220,6 +247,13 @@ public class DenoiSegTraining implements ModelZooTraining {
 	}
 
 	private void mainThread() {
+		// the tiles added so far are checked before the graph is loaded
+		if (!fitsMemoryBudget(input().getTrainingPixels(), input().getValidationData().size())) {
+			stopTraining = true;
+			cancel();
+			return;
+		}
+		batchTensors = new BatchTensors(logService);
 		outputHandler = new DenoiSegOutputHandler(config, this, context);
 		addCallbackOnEpochDone(training -> outputHandler.copyBestModel());
 
@@ -227,9 +261,10 @@ public class DenoiSegTraining implements ModelZooTraining {
 		if (Thread.interrupted() || isCanceled()) return;
 
 		try (Graph graph = new Graph();
-		     Session sess = new Session(graph)) {
+		     Session sess = SessionConfig.createSession(graph, config)) {
 
 			this.session = sess;
+			workerPool = WorkerPools.create(config().getWorkerThreads());
 
 			loadGraph(graph);
 			output().initTensors(sess);
@@ -241,7 +276,13 @@ public class DenoiSegTraining implements ModelZooTraining {
 
 			if (Thread.interrupted() || isCanceled()) return;
 			logTrainingStep("Normalizing..");
+			long normalizationStart = metrics.start();
 			normalize();
+			metrics.stop(TrainingMetrics.Phase.NORMALIZATION, normalizationStart);
+
+			// the bundle keeps the tiles before augmentation, augmenting them again is cheap
+			TrainingDataCollection<FloatType> normalizedTiles = new TrainingDataCollection<>();
+			if (config().getBundleExport() != null) normalizedTiles.addAll(input().getTrainingData());
 
 			if (Thread.interrupted() || isCanceled()) return;
 			logTrainingStep("Augment tiles..");
@@ -257,6 +298,8 @@ public class DenoiSegTraining implements ModelZooTraining {
 			logTrainingStep("Prepare validation batches..");
 			makeValidationData(n2v_perc_pix);
 
+			if (config().getBundleExport() != null) exportBundle(normalizedTiles);
+
 			index = 0;
 			tensorWeightsSegment = makeWeightsTensor();
 			tensorWeightsDenoise = makeWeightsTensor();
@@ -270,6 +313,7 @@ public class DenoiSegTraining implements ModelZooTraining {
 				});
 			}
 			initPreviewHandler();
+			initProgressReporter();
 
 			RemainingTimeEstimator timeEstimator = initTimeEstimator();
 
@@ -299,6 +343,17 @@ public class DenoiSegTraining implements ModelZooTraining {
 				e.printStackTrace();
 			}
 		} finally {
+			if (validationExecutor != null) {
+				// the validation tensors are closed below
+				ValidationRuns.shutdown(validationExecutor);
+				validationExecutor = null;
+			}
+			if (previewHandler != null) previewHandler.dispose(isCanceled());
+			if (workerPool != null) {
+				if (isCanceled()) workerPool.shutdownNow();
+				else workerPool.shutdown();
+			}
+			if (inputHandler != null) inputHandler.dispose();
 			if (tensorWeightsSegment != null) tensorWeightsSegment.close();
 			if (tensorWeightsDenoise != null) tensorWeightsDenoise.close();
 			if (validationTensorData != null) {
@@ -334,9 +389,16 @@ public class DenoiSegTraining implements ModelZooTraining {
 		}
 		if (handleInterruptionOrCancelation()) return;
 		training_data.on_epoch_end();
-		float validationLoss = validate();
+		long start = metrics.start();
+		float validationLoss = validate(epoch);
+		metrics.stop(TrainingMetrics.Phase.VALIDATION, start);
 		if (handleInterruptionOrCancelation()) return;
+		start = metrics.start();
 		output().saveCheckpoint(session, previewHandler.getExampleInput(), previewHandler.getExampleOutputDenoise());
+		metrics.stop(TrainingMetrics.Phase.CHECKPOINT, start);
+		metrics.epochDone(epoch + 1);
+		// without a validation loss the previous one is kept, early stopping and the best model ignore this epoch
+		if (Float.isNaN(validationLoss)) return;
 		output().setCurrentValidationLoss(validationLoss);
 		if (!headless()) {
 			threadService.queue(() -> dialog.updateTrainingChart(epoch + 1, losses, validationLoss));
@@ -361,7 +423,17 @@ public class DenoiSegTraining implements ModelZooTraining {
 	}
 
 	private void initPreviewHandler() {
-		previewHandler = new PreviewHandler(context, config().getTrainDimensions());
+		previewHandler = new PreviewHandler(context, config().getTrainDimensions(), config().getPreviewInterval(), headless());
+		previewHandler.setWorkerPool(workerPool);
+	}
+
+	private void initProgressReporter() {
+		if (headless()) {
+			progressReporter = new ProgressReporter(config().getProgressInterval(), config().getConsoleFormat(), System.out, null, null);
+		} else {
+			progressReporter = new ProgressReporter(config().getProgressInterval(), config().getConsoleFormat(), System.out,
+					threadService::queue, progress -> dialog.updateTrainingProgress(progress.getEpoch(), progress.getStep()));
+		}
 	}
 
 	private RemainingTimeEstimator initTimeEstimator() {
@@ -394,14 +466,14 @@ public class DenoiSegTraining implements ModelZooTraining {
 
 	private void runEpochStep(Session sess, int i, int j, DenoiSegDataWrapper<FloatType> training_data, List<Double> losses) {
 		resetBatchIndexIfNeeded();
+		long start = metrics.start();
 		ProcessedTrainingData<FloatType> item = training_data.getItem(index);
 		runTrainingOp(sess, item);
 		if(!isCanceled() && !isStopped()) {
+			metrics.addPatches(item.input.dimension(item.input.numDimensions() - 2), System.nanoTime() - start);
 			losses.add((double) output().getCurrentLoss());
-			logStatusInConsole(j + 1, config().getStepsPerEpoch());
-			if (!headless()) {
-				threadService.queue(() -> dialog.updateTrainingProgress(i + 1, j + 1));
-			}
+			progressReporter.step(new ProgressReporter.Progress(i + 1, config().getNumEpochs(), j + 1, config().getStepsPerEpoch(),
+					output().getCurrentLoss(), output().getCurrentSegLoss(), output().getCurrentDenoiseLoss(), output().getCurrentLearningRate()));
 			stepsFinished = config().getStepsPerEpoch() * i + j + 1;
 			index++;
 		}
@@ -420,10 +492,26 @@ public class DenoiSegTraining implements ModelZooTraining {
 		Arrays.fill(patchShapeData, config().getTrainPatchShape());
 		Dimensions patch_shape = new FinalDimensions(patchShapeData);
 
-		return new DenoiSegDataWrapper<>(input().getTrainingData(), config().getTrainBatchSize(), n2v_perc_pix, patch_shape, config().getNeighborhoodRadius(), DenoiSegDataWrapper::uniform_withCP);
+		DenoiSegDataWrapper<FloatType> wrapper = new DenoiSegDataWrapper<>(input().getTrainingData(), config().getTrainBatchSize(), n2v_perc_pix, patch_shape, config().getNeighborhoodRadius(), DenoiSegDataWrapper.uniformWithCP(), random.split());
+		wrapper.setMetrics(metrics);
+		wrapper.setTensorMapping(getMapping());
+		wrapper.setWorkerPool(workerPool);
+		if (input().getImageCache() != null) {
+			input().getImageCache().setWorkerPool(workerPool);
+			wrapper.setBlockOrder(new ImageBlockOrder(input().getImageCache()));
+		}
+		return wrapper;
 	}
 
 	private void makeValidationData(double n2v_perc_pix) {
+		TrainingBundle bundle = input().getBundle();
+		if (bundle != null) {
+			if (!bundle.getValidationBatches().isEmpty() && bundle.getValidationBatches().get(0).input.dimension(config().getTrainDimensions()) != config().getTrainBatchSize()) {
+				logService.warn("The validation batches of the training bundle were prepared for a different batch size.");
+			}
+			setValidationData(bundle.getValidationBatches());
+			return;
+		}
 		int n_train = input().getTrainingData().size();
 		int n_val = input().getValidationData().size();
 		System.out.println("Training data patches: " + n_train);
@@ -439,20 +527,27 @@ public class DenoiSegTraining implements ModelZooTraining {
 		DenoiSegDataWrapper<FloatType> valData = new DenoiSegDataWrapper<>(input().getValidationData(),
 				Math.min(config().getTrainBatchSize(), input().getValidationData().size()),
 				n2v_perc_pix, patch_shape, config().getNeighborhoodRadius(),
-				DenoiSegDataWrapper::uniform_withCP);
+				DenoiSegDataWrapper.uniformWithCP(), random.split());
+		valData.setMetrics(metrics);
+		valData.setTensorMapping(getMapping());
+		valData.setWorkerPool(workerPool);
 
 		ProcessedTrainingDataCollection<FloatType> validationDataList = new ProcessedTrainingDataCollection<>();
 		for (int i = 0; i < valData.numBatches(); i++) {
 			validationDataList.add(valData.getItem(i));
 		}
+		setValidationData(validationDataList);
+	}
+
+	private void setValidationData(ProcessedTrainingDataCollection<FloatType> validationDataList) {
 		this.validationData = validationDataList;
 		validationTensorData = new ArrayList<>();
 		for (ProcessedTrainingData<FloatType> data : validationDataList) {
-			Tensor tensorX = TensorFlowConverter.imageToTensor(data.input, getMapping());
+			Tensor tensorX = batchTensors.toTensor(data.input, getMapping());
 			RandomAccessibleInterval<FloatType> denoised = data.outDenoise;
 			RandomAccessibleInterval<FloatType> segmented = data.outSegment;
-			Tensor tensorYDenoise = TensorFlowConverter.imageToTensor(denoised, getMapping());
-			Tensor tensorYSegment = TensorFlowConverter.imageToTensor(segmented, getMapping());
+			Tensor tensorYDenoise = batchTensors.toTensor(denoised, getMapping());
+			Tensor tensorYSegment = batchTensors.toTensor(segmented, getMapping());
 			validationTensorData.add(new ValuePair<>(tensorX, new ValuePair<>(tensorYDenoise, tensorYSegment)));
 		}
 	}
@@ -460,17 +555,63 @@ public class DenoiSegTraining implements ModelZooTraining {
 	private void normalize() {
 		FloatType mean = output().getMean();
 		FloatType stdDev = output().getStdDev();
-		List<RandomAccessibleInterval<FloatType>> x = new ArrayList<>();
-		for (TrainingData<FloatType> pair : input().getTrainingData()) {
-			x.add(pair.input);
+		if (input().getBundle() != null) {
+			// the tiles of a bundle are normalized already
+			mean.set(input().getBundle().getMean());
+			stdDev.set(input().getBundle().getStdDev());
+			logService.info("mean: " + mean.get());
+			logService.info("stdDev: " + stdDev.get());
+			return;
+		}
+		if (input().getSources().hasStatistics()) {
+			mean.set(input().getSources().getMean());
+			stdDev.set(input().getSources().getStdDev());
+		} else {
+			List<RandomAccessibleInterval<FloatType>> x = new ArrayList<>();
+			for (TrainingData<FloatType> pair : input().getTrainingData()) {
+				x.add(pair.input);
+			}
+			mean.set(opService.stats().mean(Views.iterable(Views.stack(x))).getRealFloat());
+			stdDev.set(opService.stats().stdDev(Views.iterable(Views.stack(x))).getRealFloat());
 		}
-		mean.set(opService.stats().mean(Views.iterable(Views.stack(x))).getRealFloat());
-		stdDev.set(opService.stats().stdDev(Views.iterable(Views.stack(x))).getRealFloat());
 		logService.info("mean: " + mean.get());
 		logService.info("stdDev: " + stdDev.get());
 
 		TrainUtils.normalize(input().getTrainingData(), mean, stdDev);
 		TrainUtils.normalize(input().getValidationData(), mean, stdDev);
+		if (config().getRawStorage() != DenoiSegConfig.RawStorage.FLOAT32) convertRawStorage();
+	}
+
+	private void convertRawStorage() {
+		if (config().getTileStoreDirectory() != null) {
+			logService.info("Raw tiles are kept in the tile store as 32 bit floats, " + config().getRawStorage() + " storage is not applied.");
+			return;
+		}
+		if (input().getImageCache() != null) {
+			logService.info("Raw tiles are read from images loaded on demand, " + config().getRawStorage() + " storage is not applied.");
+			return;
+		}
+		HalfPrecisionTiles halfPrecisionTiles = new HalfPrecisionTiles(config().getRawStorage());
+		halfPrecisionTiles.convert(input().getTrainingData());
+		halfPrecisionTiles.convert(input().getValidationData());
+		input().releaseLoadedImages();
+		logService.info(config().getRawStorage() + " storage of the normalized raw tiles, max error: "
+				+ halfPrecisionTiles.getMaxError() + " RMS error: " + halfPrecisionTiles.getRmsError());
+		if (Double.isInfinite(halfPrecisionTiles.getMaxError())) {
+			logService.warn("Normalized raw values exceed the range of " + config().getRawStorage() + ", use BFLOAT16 or FLOAT32 storage.");
+		}
+	}
+
+	private void exportBundle(TrainingDataCollection<FloatType> normalizedTiles) {
+		File file = config().getBundleExport();
+		logTrainingStep("Write training bundle..");
+		try {
+			TrainingBundle.write(file, config().getTrainDimensions(), output().getMean().get(), output().getStdDev().get(),
+					normalizedTiles, validationData);
+			logService.info("Saved training bundle to " + file.getAbsolutePath());
+		} catch (IOException e) {
+			logService.error("Could not write the training bundle to " + file.getAbsolutePath(), e);
+		}
 	}
 
 	private void runTrainingOp(Session sess, ProcessedTrainingData<FloatType> item) {
@@ -479,9 +620,11 @@ public class DenoiSegTraining implements ModelZooTraining {
 //			opService.context().service(UIService.class).show("denoise", item.outDenoise);
 //			opService.context().service(UIService.class).show("segmented", item.outSegment);
 //		}
-		Tensor tensorX = TensorFlowConverter.imageToTensor(item.input, getMapping());
-		Tensor tensorYDenoise = TensorFlowConverter.imageToTensor(item.outDenoise, getMapping());
-		Tensor tensorYSegment = TensorFlowConverter.imageToTensor(item.outSegment, getMapping());
+		long start = metrics.start();
+		Tensor tensorX = batchTensors.toTensor(item.input, getMapping());
+		Tensor tensorYDenoise = batchTensors.toTensor(item.outDenoise, getMapping());
+		Tensor tensorYSegment = batchTensors.toTensor(item.outSegment, getMapping());
+		metrics.stop(TrainingMetrics.Phase.TENSOR_CONVERSION, start);
 
 		Session.Runner runner = sess.runner();
 
@@ -500,7 +643,9 @@ public class DenoiSegTraining implements ModelZooTraining {
 		runner.fetch(trainingFetchSegLossOp);
 		runner.fetch(trainingFetchLearningOp);
 
+		start = metrics.start();
 		List<Tensor<?>> fetchedTensors = runner.run();
+		metrics.stop(TrainingMetrics.Phase.SESSION_RUN, start);
 		float loss = fetchedTensors.get(0).floatValue();
 		float denoiseLoss = fetchedTensors.get(1).floatValue();
 		float segLoss = fetchedTensors.get(2).floatValue();
@@ -548,81 +693,150 @@ public class DenoiSegTraining implements ModelZooTraining {
 			logService.error(errorMsg);
 			stopTraining = true;
 			dispose();
-			uiService.showDialog(errorMsg, DialogPrompt.MessageType.ERROR_MESSAGE);
+			if (!headless()) uiService.showDialog(errorMsg, DialogPrompt.MessageType.ERROR_MESSAGE);
 			return false;
 		}
 		return true;
 	}
 
+	private boolean fitsMemoryBudget(long trainingPixels, int validationTiles) {
+		MemoryEstimator estimator = new MemoryEstimator(config);
+		long budget = config.getMemoryBudget();
+		long estimate = estimator.estimate(config.getTrainBatchSize(), trainingPixels, validationTiles);
+		logService.info("Estimated memory usage: " + MemoryEstimator.format(estimate)
+				+ (budget > 0 ? " (budget: " + MemoryEstimator.format(budget) + ")" : ""));
+		if (budget <= 0 || estimate <= budget) return true;
+		if (config.getAutoBatchSize()) {
+			int batchSize = estimator.largestFittingBatchSize(budget, config.getTrainBatchSize(), trainingPixels, validationTiles);
+			if (batchSize > 0) {
+				logService.info("Reducing batch size from " + config.getTrainBatchSize() + " to " + batchSize + " to fit the memory budget.");
+				// the config of the caller keeps its batch size
+				config = config.copy().setBatchSize(batchSize);
+				return true;
+			}
+		}
+		String errorMsg = "The training needs about " + MemoryEstimator.format(estimate)
+				+ " of memory, which exceeds the memory budget of " + MemoryEstimator.format(budget) + ". "
+				+ (config.getAutoBatchSize() ? "Even a batch size of 1 does not fit, reduce the patch shape or the amount of training data."
+				: "Reduce the batch size or the patch shape, or enable the automatic batch size.");
+		logService.error(errorMsg);
+		if (!headless()) uiService.showDialog(errorMsg, DialogPrompt.MessageType.ERROR_MESSAGE);
+		return false;
+	}
+
 	private Tensor<Float> makeWeightsTensor() {
 		float[] weightsdata = new float[config().getTrainBatchSize()];
 		Arrays.fill(weightsdata, 1);
 		return Tensors.create(weightsdata);
 	}
 
-	private float validate() {
+	/**
+	 * @return the average loss of the validated batches, NaN if no batch was validated
+	 */
+	private float validate(int epoch) {
+
+		int validationBatches = validationTensorData.size();
+		float[] losses = new float[validationBatches];
+		float[] denoiseLosses = new float[validationBatches];
+		float[] segLosses = new float[validationBatches];
+		List<RandomAccessibleInterval<FloatType>> previewOutputs = new ArrayList<>();
+
+		Tensor<Boolean> tensorLearningPhase = Tensors.create(false);
+		boolean[] done;
+		try {
+			done = ValidationRuns.run(validationExecutor(), validationBatches,
+					batch -> runValidationBatch(batch, tensorLearningPhase, losses, denoiseLosses, segLosses, previewOutputs),
+					() -> stopTraining || isCanceled());
+		} finally {
+			tensorLearningPhase.close();
+		}
+
+		if (previewOutputs.size() == 2) {
+			previewHandler.updateValidationPreview(validationData.get(0).input, previewOutputs.get(0), previewOutputs.get(1),
+					outputHandler, epoch, config().getNumEpochs(), isStopped() || isCanceled());
+		}
 
 		float avgDenoiseLoss = 0;
 		float avgSegLoss = 0;
 		float avgLoss = 0;
+		int finishedBatches = 0;
+		for (int i = 0; i < validationBatches; i++) {
+			if (!done[i]) continue;
+			avgLoss += losses[i];
+			avgDenoiseLoss += denoiseLosses[i];
+			avgSegLoss += segLosses[i];
+			finishedBatches++;
+		}
+		// all runs were skipped because the training was stopped, canceled or interrupted
+		if (finishedBatches == 0) {
+			logService.info("Validation skipped.");
+			return Float.NaN;
+		}
+		avgDenoiseLoss /= (float) (finishedBatches);
+		avgSegLoss /= (float) (finishedBatches);
+		avgLoss /= (float) (finishedBatches);
 
-		long validationBatches = validationTensorData.size();
-		int i = 0;
-		for (; i < validationBatches; i++) {
-
-			Pair<Tensor, Pair<Tensor, Tensor>> tensorItem = validationTensorData.get(i);
-			ProcessedTrainingData<FloatType> item = validationData.get(i);
-
-			Tensor tensorX = tensorItem.getA();
-			Tensor tensorYDenoise = tensorItem.getB().getA();
-			Tensor tensorYSegment = tensorItem.getB().getB();
-			Tensor<Boolean> tensorLearningPhase = Tensors.create(false);
-
-			Session.Runner runner = session.runner();
-
-			runner.feed(trainingFeedXOp, tensorX)
-					.feed(trainingFeedYDenoiseOp, tensorYDenoise)
-					.feed(trainingFeedYSegmentOp, tensorYSegment)
-					.feed(trainingFeedLearningPhaseOp, tensorLearningPhase)
-					.feed(trainingFeedSampleWeightsSegmentOp, tensorWeightsSegment)
-					.feed(trainingFeedSampleWeightsDenoiseOp, tensorWeightsDenoise)
-					.addTarget(validationTargetOp);
-			runner.fetch(trainingFetchLossOp);
-			runner.fetch(trainingFetchDenoiseLossOp);
-			runner.fetch(trainingFetchSegLossOp);
-			if (i == 0) {
-				runner.fetch(predictionTargetDenoiseOp);
-				runner.fetch(predictionTargetSegmentOp);
-			}
+		logService.info("\nValidation loss: " + avgLoss + " denoise loss: " + avgDenoiseLoss + " seg loss: " + avgSegLoss);
+		return avgLoss;
+	}
 
-			List<Tensor<?>> fetchedTensors = runner.run();
+	private void runValidationBatch(int i, Tensor<Boolean> tensorLearningPhase, float[] losses, float[] denoiseLosses,
+	                                float[] segLosses, List<RandomAccessibleInterval<FloatType>> previewOutputs) {
 
-			avgLoss += fetchedTensors.get(0).floatValue();
-			avgDenoiseLoss += fetchedTensors.get(1).floatValue();
-			avgSegLoss += fetchedTensors.get(2).floatValue();
+		Pair<Tensor, Pair<Tensor, Tensor>> tensorItem = validationTensorData.get(i);
 
-			if (i == 0) {
-				Tensor outputTensorDenoise = fetchedTensors.get(3);
-				Tensor outputTensorSegment = fetchedTensors.get(4);
-				RandomAccessibleInterval<FloatType> outputDenoise = TensorFlowConverter.tensorToImage(outputTensorDenoise, getMapping());
-				RandomAccessibleInterval<FloatType> outputSegment = TensorFlowConverter.tensorToImage(outputTensorSegment, getMapping());
-				previewHandler.updateValidationPreview(item.input, outputDenoise, outputSegment, headless(), outputHandler, isStopped() || isCanceled());
-//			updateHistoryImage(output);
-			}
-			fetchedTensors.forEach(Tensor::close);
-			tensorLearningPhase.close();
+		Tensor tensorX = tensorItem.getA();
+		Tensor tensorYDenoise = tensorItem.getB().getA();
+		Tensor tensorYSegment = tensorItem.getB().getB();
 
-			if (stopTraining || Thread.interrupted() || isCanceled()) {
-				i++;
-				break;
-			}
+		Session.Runner runner = session.runner();
+
+		runner.feed(trainingFeedXOp, tensorX)
+				.feed(trainingFeedYDenoiseOp, tensorYDenoise)
+				.feed(trainingFeedYSegmentOp, tensorYSegment)
+				.feed(trainingFeedLearningPhaseOp, tensorLearningPhase)
+				.feed(trainingFeedSampleWeightsSegmentOp, tensorWeightsSegment)
+				.feed(trainingFeedSampleWeightsDenoiseOp, tensorWeightsDenoise)
+				.addTarget(validationTargetOp);
+		runner.fetch(trainingFetchLossOp);
+		runner.fetch(trainingFetchDenoiseLossOp);
+		runner.fetch(trainingFetchSegLossOp);
+		if (i == 0) {
+			runner.fetch(predictionTargetDenoiseOp);
+			runner.fetch(predictionTargetSegmentOp);
 		}
-		avgDenoiseLoss /= (float) (i);
-		avgSegLoss /= (float) (i);
-		avgLoss /= (float) (i);
 
-		logService.info("\nValidation loss: " + avgLoss + " denoise loss: " + avgDenoiseLoss + " seg loss: " + avgSegLoss);
-		return avgLoss;
+		List<Tensor<?>> fetchedTensors = runner.run();
+
+		losses[i] = fetchedTensors.get(0).floatValue();
+		denoiseLosses[i] = fetchedTensors.get(1).floatValue();
+		segLosses[i] = fetchedTensors.get(2).floatValue();
+
+		if (i == 0) {
+			Tensor outputTensorDenoise = fetchedTensors.get(3);
+			Tensor outputTensorSegment = fetchedTensors.get(4);
+			previewOutputs.add(TensorFlowConverter.tensorToImage(outputTensorDenoise, getMapping()));
+			previewOutputs.add(TensorFlowConverter.tensorToImage(outputTensorSegment, getMapping()));
+		}
+		fetchedTensors.forEach(Tensor::close);
+	}
+
+	/**
+	 * Validation batches only run inference targets, so they can be spread over
+	 * several concurrent runs on the training session. The runs share the intra-op
+	 * thread pool of the session.
+	 */
+	private ExecutorService validationExecutor() {
+		if (validationExecutor == null) {
+			int threads = Math.max(1, Math.min(config().getValidationThreads(), validationTensorData.size()));
+			AtomicInteger threadCount = new AtomicInteger();
+			validationExecutor = Executors.newFixedThreadPool(threads, runnable -> {
+				Thread thread = new Thread(runnable, "denoiseg-validation-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return validationExecutor;
 	}
 
 	public boolean isStopped() {
@@ -637,26 +851,6 @@ public class DenoiSegTraining implements ModelZooTraining {
 		output().setCurrentLearningRate(newLR);
 	}
 
-	private void logStatusInConsole(int step, int stepTotal) {
-		int maxBareSize = 10; // 10unit for 100%
-		int remainProcent = ((100 * step) / stepTotal) / maxBareSize;
-		char defaultChar = '-';
-		String icon = "*";
-		String bare = new String(new char[maxBareSize]).replace('\0', defaultChar) + "]";
-		StringBuilder bareDone = new StringBuilder();
-		bareDone.append("[");
-		for (int i = 0; i < remainProcent; i++) {
-			bareDone.append(icon);
-		}
-		String bareRemain = bare.substring(remainProcent);
-		System.out.printf("%d / %d %s%s - loss: %f seg loss: %f denoise loss: %f lr: %f\n", step, stepTotal, bareDone, bareRemain,
-				output().getCurrentLoss(),
-//				output().getCurrentDenoiSegLoss(),
-				output().getCurrentSegLoss(),
-				output().getCurrentDenoiseLoss(),
-				output().getCurrentLearningRate());
-	}
-
 	public TrainingProgress getDialog() {
 		return dialog;
 	}
@@ -665,6 +859,10 @@ public class DenoiSegTraining implements ModelZooTraining {
 		return config;
 	}
 
+	public TrainingMetrics metrics() {
+		return metrics;
+	}
+
 	public InputHandler input() {
 		return inputHandler;
 	}
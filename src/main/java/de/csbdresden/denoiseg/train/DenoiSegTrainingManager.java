@@ -0,0 +1,182 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import org.scijava.Context;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs several {@link DenoiSegTraining}s side by side in one JVM.
+ * Each training reserves a number of cores and an amount of memory from the budgets of the manager
+ * before it starts and releases them when it is done; trainings which do not fit wait until enough
+ * of the budgets is free again. The reserved cores are passed to TensorFlow as intra-op threads of the
+ * training's session and size the pool of its Java side work (see {@link DenoiSegConfig#setWorkerThreads(int)}).
+ * Trainings with a memory budget reserve their budget. Trainings without one reserve the estimate of their
+ * graph and batches, which does not include their data (see {@link MemoryEstimator}), so the reservation is
+ * not enforced as their memory budget.
+ */
+public class DenoiSegTrainingManager {
+
+	public interface TrainingSetup {
+		/**
+		 * Called after {@link DenoiSegTraining#init(DenoiSegConfig)}, adds the training data via {@link DenoiSegTraining#input()}.
+		 */
+		void accept(DenoiSegTraining training) throws IOException;
+	}
+
+	private final Context context;
+	private final int coreBudget;
+	private final long memoryBudget;
+	private final int defaultCoresPerTraining;
+	private final ExecutorService executor;
+	private final Set<DenoiSegTraining> running = Collections.synchronizedSet(new HashSet<>());
+
+	private int freeCores;
+	private long freeMemory;
+
+	/**
+	 * @param coreBudget number of cores all trainings together may use
+	 * @param memoryBudget bytes all trainings together may use, 0 to not limit the memory
+	 * @param defaultCoresPerTraining cores reserved for trainings without configured intra-op threads
+	 */
+	public DenoiSegTrainingManager(Context context, int coreBudget, long memoryBudget, int defaultCoresPerTraining) {
+		if(defaultCoresPerTraining < 1 || defaultCoresPerTraining > coreBudget) {
+			throw new IllegalArgumentException("Cores per training must be between 1 and the core budget (" + coreBudget + ")");
+		}
+		this.context = context;
+		this.coreBudget = coreBudget;
+		this.memoryBudget = memoryBudget;
+		this.defaultCoresPerTraining = defaultCoresPerTraining;
+		this.freeCores = coreBudget;
+		this.freeMemory = memoryBudget;
+		AtomicInteger threadCount = new AtomicInteger();
+		this.executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "denoiseg-training-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Queues a training. The training runs with a copy of the config which is adjusted to the reserved resources,
+	 * the given config is not modified.
+	 * @return future of the finished (or canceled) training, which can be used to export the trained model
+	 */
+	public Future<DenoiSegTraining> submit(DenoiSegConfig config, TrainingSetup setup) {
+		int cores = config.getIntraOpThreads() > 0 ? config.getIntraOpThreads() : defaultCoresPerTraining;
+		long memory = memoryBudget > 0 ? requiredMemory(config) : 0;
+		if(cores > coreBudget) {
+			throw new IllegalArgumentException("Training needs " + cores + " cores, the budget is " + coreBudget);
+		}
+		if(memory > memoryBudget) {
+			throw new IllegalArgumentException("Training needs " + MemoryEstimator.format(memory)
+					+ ", the budget is " + MemoryEstimator.format(memoryBudget));
+		}
+		DenoiSegConfig trainingConfig = budgetedConfig(config, cores);
+		return executor.submit(() -> {
+			reserve(cores, memory);
+			DenoiSegTraining training = null;
+			try {
+				training = new DenoiSegTraining(context);
+				running.add(training);
+				training.init(trainingConfig);
+				setup.accept(training);
+				training.train();
+				return training;
+			} finally {
+				if(training != null) running.remove(training);
+				release(cores, memory);
+			}
+		});
+	}
+
+	/**
+	 * @return a copy of the config whose thread pools are sized by the reserved cores: the intra-op pool of the
+	 * session and the Java worker pool get {@code cores} threads each, the inter-op pool at most two. Together these
+	 * are up to {@code 2 * cores + 2} threads, they rarely compute at the same time since the worker pool prepares
+	 * the batches between the session runs.
+	 */
+	static DenoiSegConfig budgetedConfig(DenoiSegConfig config, int cores) {
+		DenoiSegConfig budgeted = config.copy()
+				.setIntraOpThreads(cores)
+				.setValidationThreads(Math.min(config.getValidationThreads(), cores));
+		if(config.getInterOpThreads() <= 0 || config.getInterOpThreads() > cores) budgeted.setInterOpThreads(Math.min(cores, 2));
+		if(config.getWorkerThreads() <= 0 || config.getWorkerThreads() > cores) budgeted.setWorkerThreads(cores);
+		return budgeted;
+	}
+
+	static long requiredMemory(DenoiSegConfig config) {
+		if(config.getMemoryBudget() > 0) return config.getMemoryBudget();
+		return new MemoryEstimator(config).estimate(config.getTrainBatchSize(), 0, 0);
+	}
+
+	synchronized void reserve(int cores, long memory) throws InterruptedException {
+		while(freeCores < cores || freeMemory < memory) {
+			wait();
+		}
+		freeCores -= cores;
+		freeMemory -= memory;
+	}
+
+	synchronized void release(int cores, long memory) {
+		freeCores += cores;
+		freeMemory += memory;
+		notifyAll();
+	}
+
+	public synchronized int getFreeCores() {
+		return freeCores;
+	}
+
+	public synchronized long getFreeMemory() {
+		return freeMemory;
+	}
+
+	public int getNumRunning() {
+		return running.size();
+	}
+
+	/**
+	 * Cancels all running trainings and discards the queued ones.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+		synchronized (running) {
+			running.forEach(DenoiSegTraining::cancel);
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import org.scijava.log.LogService;
+
+/**
+ * Stops the training once the validation loss did not improve by at least
+ * {@code minDelta} for {@code patience} epochs.
+ */
+public class EarlyStopping {
+
+	private final int patience;
+	private final float minDelta;
+	private final boolean restoreBest;
+	private final LogService logService;
+	private int wait = 0;
+	private int epoch = 0;
+	private int bestEpoch = 0;
+	private float best = Float.MAX_VALUE;
+
+	public EarlyStopping(int patience, float minDelta, boolean restoreBest, LogService logService) {
+		this.patience = patience;
+		this.minDelta = minDelta;
+		this.restoreBest = restoreBest;
+		this.logService = logService;
+	}
+
+	public void earlyStopping(DenoiSegTraining training) {
+		if(!update(training.output().getCurrentValidationLoss())) return;
+		logService.info("Validation loss did not improve for " + patience + " epochs, stopping after epoch " + epoch
+				+ " (best epoch: " + bestEpoch + ")");
+		if(restoreBest) training.output().setExportBestAsLatest(true);
+		training.stopTraining();
+	}
+
+	/**
+	 * @return true if the training should stop after the epoch with the given validation loss
+	 */
+	boolean update(float validationLoss) {
+		epoch++;
+		if(validationLoss < best - minDelta) {
+			best = validationLoss;
+			bestEpoch = epoch;
+			wait = 0;
+			return false;
+		}
+		wait++;
+		return wait >= patience;
+	}
+
+	int getBestEpoch() {
+		return bestEpoch;
+	}
+}
@@ -0,0 +1,167 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converter;
+import net.imglib2.converter.Converters;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Keeps normalized raw tiles as 16 bit floats (IEEE half precision or bfloat16) in short arrays.
+ * The tiles are widened to 32 bit floats lazily, i.e. when a batch is filled.
+ * The conversion keeps track of the error it introduces.
+ */
+class HalfPrecisionTiles {
+
+	private final DenoiSegConfig.RawStorage storage;
+	private double maxError = 0;
+	private double sumOfSquaredErrors = 0;
+	private long numPixels = 0;
+
+	HalfPrecisionTiles(DenoiSegConfig.RawStorage storage) {
+		if(storage == DenoiSegConfig.RawStorage.FLOAT32) throw new IllegalArgumentException("Expected a 16 bit storage.");
+		this.storage = storage;
+	}
+
+	/**
+	 * Replaces the raw input of each tile by a 16 bit copy, the labeling is not changed.
+	 */
+	void convert(TrainingDataCollection<FloatType> tiles) {
+		for (int i = 0; i < tiles.size(); i++) {
+			TrainingData<FloatType> tile = tiles.get(i);
+			tiles.set(i, new TrainingData<>(convert(tile.input), tile.outSegment));
+		}
+	}
+
+	RandomAccessibleInterval<FloatType> convert(RandomAccessibleInterval<FloatType> tile) {
+		ArrayImg<ShortType, ShortArray> stored = ArrayImgs.shorts(Intervals.dimensionsAsLongArray(tile));
+		short[] data = stored.update(null).getCurrentStorageArray();
+		Cursor<FloatType> cursor = Views.flatIterable(tile).cursor();
+		for (int i = 0; cursor.hasNext(); i++) {
+			float value = cursor.next().get();
+			data[i] = encode(value);
+			double error = Math.abs(decode(data[i]) - (double) value);
+			maxError = Math.max(maxError, error);
+			sumOfSquaredErrors += error * error;
+		}
+		numPixels += data.length;
+		Converter<ShortType, FloatType> widen = storage == DenoiSegConfig.RawStorage.FLOAT16 ?
+				(input, output) -> output.set(fromHalf(input.get())) :
+				(input, output) -> output.set(fromBFloat16(input.get()));
+		return Converters.convert((RandomAccessibleInterval<ShortType>) stored, widen, new FloatType());
+	}
+
+	/**
+	 * @return the largest absolute difference between a value and its 16 bit representation,
+	 * infinite if values exceed the range of the storage
+	 */
+	double getMaxError() {
+		return maxError;
+	}
+
+	/**
+	 * @return the root mean square difference between the values and their 16 bit representation
+	 */
+	double getRmsError() {
+		return numPixels == 0 ? 0 : Math.sqrt(sumOfSquaredErrors / numPixels);
+	}
+
+	private short encode(float value) {
+		return storage == DenoiSegConfig.RawStorage.FLOAT16 ? toHalf(value) : toBFloat16(value);
+	}
+
+	private float decode(short value) {
+		return storage == DenoiSegConfig.RawStorage.FLOAT16 ? fromHalf(value) : fromBFloat16(value);
+	}
+
+	/**
+	 * @return the IEEE 754 half precision bits of {@code value}, rounded to nearest even
+	 */
+	static short toHalf(float value) {
+		int bits = Float.floatToIntBits(value);
+		int sign = (bits >>> 16) & 0x8000;
+		int exponent = (bits >>> 23) & 0xff;
+		int mantissa = bits & 0x7fffff;
+		if(exponent == 0xff) {
+			// infinity stays infinity, NaN stays NaN
+			return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+		}
+		int halfExponent = exponent - 127 + 15;
+		if(halfExponent >= 0x1f) return (short) (sign | 0x7c00);
+		if(halfExponent <= 0) {
+			// subnormal half precision value or zero
+			if(halfExponent < -10) return (short) sign;
+			mantissa |= 0x800000;
+			int shift = 14 - halfExponent;
+			int roundBit = 1 << (shift - 1);
+			int half = mantissa >> shift;
+			if((mantissa & roundBit) != 0 && (mantissa & (3 * roundBit - 1)) != 0) half++;
+			return (short) (sign | half);
+		}
+		int half = sign | (halfExponent << 10) | (mantissa >> 13);
+		// a carry from the mantissa correctly increments the exponent, up to infinity
+		int roundBit = 0x1000;
+		if((mantissa & roundBit) != 0 && (mantissa & (3 * roundBit - 1)) != 0) half++;
+		return (short) half;
+	}
+
+	static float fromHalf(short half) {
+		int bits = half & 0xffff;
+		int sign = (bits & 0x8000) << 16;
+		int exponent = (bits >>> 10) & 0x1f;
+		int mantissa = bits & 0x3ff;
+		if(exponent == 0x1f) return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+		if(exponent == 0) {
+			float value = mantissa * 0x1p-24f;
+			return sign == 0 ? value : -value;
+		}
+		return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+	}
+
+	/**
+	 * @return the upper 16 bits of {@code value}, rounded to nearest even
+	 */
+	static short toBFloat16(float value) {
+		int bits = Float.floatToIntBits(value);
+		if(Float.isNaN(value)) return (short) ((bits >>> 16) | 0x40);
+		return (short) ((bits + 0x7fff + ((bits >>> 16) & 1)) >>> 16);
+	}
+
+	static float fromBFloat16(short value) {
+		return Float.intBitsToFloat((value & 0xffff) << 16);
+	}
+}
@@ -0,0 +1,134 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.type.numeric.RealType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Orders the tiles of lazily loaded images so that consecutive batches mostly hit the {@link ImageCache}.
+ * The images are shuffled and grouped into blocks filling at most half of the cache, the tiles are
+ * shuffled within each block. While the tiles of one block are used, the images of the next block are
+ * prefetched into the other half of the cache.
+ */
+class ImageBlockOrder {
+
+	private final ImageCache cache;
+	private final List<Integer> blockStarts = new ArrayList<>();
+	private final List<Set<ImageCache.Key>> blockImages = new ArrayList<>();
+	private int prefetchedBlock = -1;
+
+	ImageBlockOrder(ImageCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Shuffles the tiles in place, block by block, and starts prefetching the images of the first block.
+	 */
+	synchronized <T extends RealType<T>> void shuffle(List<TrainingData<T>> tiles, Random random) {
+		// tiles of resident images are not grouped, they are spread over all blocks
+		Map<Object, List<TrainingData<T>>> byImage = new LinkedHashMap<>();
+		for (TrainingData<T> tile : tiles) {
+			Object image = tile.source != null ? tile.source : new Object();
+			byImage.computeIfAbsent(image, key -> new ArrayList<>()).add(tile);
+		}
+		List<Map.Entry<Object, List<TrainingData<T>>>> images = new ArrayList<>(byImage.entrySet());
+		Collections.shuffle(images, random);
+
+		tiles.clear();
+		blockStarts.clear();
+		blockImages.clear();
+		long blockCapacity = cache.getCapacity() / 2;
+		List<TrainingData<T>> block = new ArrayList<>();
+		Set<ImageCache.Key> keys = new LinkedHashSet<>();
+		long blockBytes = 0;
+		for (Map.Entry<Object, List<TrainingData<T>>> image : images) {
+			long bytes = image.getKey() instanceof ImageCache.Key ? ((ImageCache.Key) image.getKey()).bytes : 0;
+			if(!keys.isEmpty() && blockBytes + bytes > blockCapacity) {
+				addBlock(tiles, block, keys, random);
+				block = new ArrayList<>();
+				keys = new LinkedHashSet<>();
+				blockBytes = 0;
+			}
+			block.addAll(image.getValue());
+			if(bytes > 0) keys.add((ImageCache.Key) image.getKey());
+			blockBytes += bytes;
+		}
+		if(!block.isEmpty()) addBlock(tiles, block, keys, random);
+
+		prefetchedBlock = -1;
+		prefetch(0);
+	}
+
+	private <T extends RealType<T>> void addBlock(List<TrainingData<T>> tiles,
+			List<TrainingData<T>> block, Set<ImageCache.Key> keys, Random random) {
+		Collections.shuffle(block, random);
+		blockStarts.add(tiles.size());
+		blockImages.add(keys);
+		tiles.addAll(block);
+	}
+
+	/**
+	 * Called before the tile at the given position is used, prefetches the images of the block
+	 * containing this tile and of the block following it.
+	 */
+	synchronized void prefetch(int tile) {
+		if(blockStarts.isEmpty()) return;
+		int block = blockOf(tile);
+		int next = (block + 1) % blockStarts.size();
+		if(prefetchedBlock != block && prefetchedBlock != next) {
+			cache.prefetch(blockImages.get(block));
+		}
+		if(prefetchedBlock != next) {
+			cache.prefetch(blockImages.get(next));
+			prefetchedBlock = next;
+		}
+	}
+
+	private int blockOf(int tile) {
+		int index = Collections.binarySearch(blockStarts, tile);
+		return index >= 0 ? index : Math.max(0, -index - 2);
+	}
+
+	synchronized int getNumBlocks() {
+		return blockStarts.size();
+	}
+
+	synchronized Set<ImageCache.Key> getImages(int block) {
+		return blockImages.get(block);
+	}
+}
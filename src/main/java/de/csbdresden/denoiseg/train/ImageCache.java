@@ -0,0 +1,256 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Function;
+
+/**
+ * Decodes training images on demand and keeps the most recently used ones until their estimated size
+ * exceeds the capacity of the cache. Images can be loaded ahead of time on a background thread.
+ */
+class ImageCache {
+
+	/**
+	 * Identifies a lazily loaded image, only its files and its dimensions are kept in memory.
+	 */
+	static class Key {
+		final File raw;
+		final File labeling;
+		final long[] dimensions;
+		final long bytes;
+
+		Key(File raw, File labeling, long[] dimensions, long bytes) {
+			this.raw = raw;
+			this.labeling = labeling;
+			this.dimensions = dimensions;
+			this.bytes = bytes;
+		}
+
+		@Override
+		public String toString() {
+			return raw.getAbsolutePath();
+		}
+	}
+
+	static class Images {
+		final RandomAccessibleInterval<FloatType> raw;
+		final RandomAccessibleInterval<IntType> labeling;
+		private RandomAccessibleInterval<UnsignedByteType> labels;
+
+		Images(RandomAccessibleInterval<FloatType> raw, RandomAccessibleInterval<IntType> labeling) {
+			this.raw = raw;
+			this.labeling = labeling;
+		}
+
+		/**
+		 * @return the class indices of the labeling, compacted on first use and kept as long as the images are cached
+		 */
+		synchronized RandomAccessibleInterval<UnsignedByteType> labels(Function<RandomAccessibleInterval<IntType>, RandomAccessibleInterval<UnsignedByteType>> compaction) {
+			if(labels == null) labels = compaction.apply(labeling);
+			return labels;
+		}
+	}
+
+	interface Loader {
+		Images load(Key key) throws Exception;
+	}
+
+	private final long capacity;
+	private final Loader loader;
+	// access ordered, the first entry is the least recently used one
+	private final LinkedHashMap<Key, Images> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<Key, Future<Images>> loading = new HashMap<>();
+	private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "denoiseg-prefetch");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private volatile ForkJoinPool workerPool;
+	private long bytes = 0;
+	private long hits = 0;
+	private long misses = 0;
+
+	ImageCache(long capacity, Loader loader) {
+		this.capacity = capacity;
+		this.loader = loader;
+	}
+
+	/**
+	 * @return the images of the given key, decoded in the calling thread unless they are cached or already being loaded
+	 */
+	Images get(Key key) {
+		Future<Images> future;
+		FutureTask<Images> task = null;
+		synchronized (this) {
+			Images images = entries.get(key);
+			if(images != null) {
+				hits++;
+				return images;
+			}
+			misses++;
+			future = loading.get(key);
+			if(future == null) {
+				task = new FutureTask<>(() -> loader.load(key));
+				loading.put(key, task);
+				future = task;
+			}
+		}
+		if(task != null) task.run();
+		return complete(key, future);
+	}
+
+	/**
+	 * Adds images which were already decoded, e.g. while indexing the training data.
+	 */
+	synchronized void put(Key key, Images images) {
+		Images previous = entries.put(key, images);
+		if(previous != null) bytes -= key.bytes;
+		bytes += key.bytes;
+		evict();
+	}
+
+	/**
+	 * @param pool the pool prefetched images are decoded on, null to decode them on the prefetch thread
+	 */
+	void setWorkerPool(ForkJoinPool pool) {
+		this.workerPool = pool;
+	}
+
+	/**
+	 * Loads the given images on a background thread, unless they are cached or already being loaded.
+	 */
+	synchronized void prefetch(Collection<Key> keys) {
+		if(prefetchExecutor.isShutdown()) return;
+		for (Key key : keys) {
+			if(entries.containsKey(key) || loading.containsKey(key)) continue;
+			FutureTask<Images> task = new FutureTask<>(() -> loader.load(key));
+			loading.put(key, task);
+			prefetchExecutor.execute(() -> {
+				WorkerPools.run(workerPool, task);
+				try {
+					complete(key, task);
+				} catch (IllegalStateException ignored) {
+					// the error is reported again when the image is requested
+				}
+			});
+		}
+	}
+
+	private Images complete(Key key, Future<Images> future) {
+		Images images;
+		try {
+			images = getUninterruptibly(future);
+		} catch (ExecutionException e) {
+			synchronized (this) {
+				if(loading.get(key) == future) loading.remove(key);
+			}
+			throw new IllegalStateException("Could not load " + key, e.getCause());
+		}
+		synchronized (this) {
+			// only the first thread waiting for the images adds them
+			if(loading.get(key) == future) {
+				loading.remove(key);
+				put(key, images);
+			}
+		}
+		return images;
+	}
+
+	private static Images getUninterruptibly(Future<Images> future) throws ExecutionException {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return future.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if(interrupted) Thread.currentThread().interrupt();
+		}
+	}
+
+	// the most recent entry is kept even if it exceeds the capacity on its own
+	private void evict() {
+		Iterator<Map.Entry<Key, Images>> iterator = entries.entrySet().iterator();
+		while (bytes > capacity && entries.size() > 1) {
+			Key key = iterator.next().getKey();
+			iterator.remove();
+			bytes -= key.bytes;
+		}
+	}
+
+	long getCapacity() {
+		return capacity;
+	}
+
+	synchronized long getBytes() {
+		return bytes;
+	}
+
+	synchronized boolean contains(Key key) {
+		return entries.containsKey(key);
+	}
+
+	synchronized long getHits() {
+		return hits;
+	}
+
+	synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Stops prefetching and drops all cached images.
+	 */
+	synchronized void dispose() {
+		prefetchExecutor.shutdownNow();
+		entries.clear();
+		loading.clear();
+		bytes = 0;
+	}
+}
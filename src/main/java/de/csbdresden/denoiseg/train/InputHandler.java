@@ -29,27 +29,35 @@
 package de.csbdresden.denoiseg.train;
 
 import de.csbdresden.n2v.ui.TrainingProgress;
+import io.scif.FormatException;
+import io.scif.ImageMetadata;
+import io.scif.Metadata;
 import io.scif.services.DatasetIOService;
+import io.scif.services.InitializeService;
 import net.imagej.modelzoo.consumer.converter.RealIntConverter;
-import net.imagej.ops.OpService;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.boundary.IntTypeBoundary;
 import net.imglib2.converter.Converter;
 import net.imglib2.converter.Converters;
 import net.imglib2.converter.RealFloatConverter;
 import net.imglib2.img.Img;
-import net.imglib2.img.cell.CellImgFactory;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
 import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
 import net.imglib2.view.composite.Composite;
+import org.janelia.saalfeldlab.n5.N5Reader;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
 import org.scijava.Context;
 import org.scijava.event.EventService;
+import org.scijava.event.EventSubscriber;
 import org.scijava.io.IOService;
 import org.scijava.io.event.IOEvent;
+import org.scijava.io.location.FileLocation;
 import org.scijava.log.LogService;
 import org.scijava.plugin.Parameter;
 
@@ -58,13 +66,23 @@ import java.io.FileFilter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Random;
+import java.util.stream.Collectors;
 
 public class InputHandler {
 
+	interface MemoryCheck {
+		/**
+		 * @return true if a training on tiles with the given number of pixels and validation tiles fits into the memory budget
+		 */
+		boolean fits(long trainingPixels, int validationTiles);
+	}
+
 	@Parameter
 	private LogService logService;
 
@@ -74,37 +92,83 @@ public class InputHandler {
 	@Parameter
 	private EventService eventService;
 
-	@Parameter
-	private OpService opService;
+	@Parameter(required = false)
+	private InitializeService initializeService;
 
 	private final DenoiSegConfig config;
 	private TrainingProgress dialog;
+	private TrainingMetrics metrics = new TrainingMetrics();
+	private final Random random;
 
 	private int showXPreviews = 10;
+	// number of images loaded on demand which are decoded for the normalization statistics
+	private static final int statisticsSampleSize = 16;
 
-	private final List< RandomAccessibleInterval< FloatType > > trainingUnlabeled = new ArrayList<>();
+	// unlabeled tiles get their zero labeling in finalizeTrainingData
+	private final TrainingDataCollection<FloatType> trainingUnlabeled = new TrainingDataCollection<>();
 	private final TrainingDataCollection<FloatType> trainingLabeled = new TrainingDataCollection<>();
 	private final TrainingDataCollection<FloatType> validationData = new TrainingDataCollection<>();
 	private final TrainingDataCollection<FloatType> trainingData = new TrainingDataCollection<>();
-	private Collection subscribers;
+	private final TrainingSources sources = new TrainingSources();
+	// only a sweep reuses the decoded images, otherwise they can be freed once they are tiled
+	private boolean sourcesOnly = false;
+	private MappedTileStore tileStore;
+	private ImageCache imageCache;
+	private TrainingBundle bundle;
+	// IO events are suppressed while loading, counted per event service since several trainings may load at once
+	private static final Map<EventService, SuppressedSubscribers> suppressedIOEvents = new HashMap<>();
 	private boolean canceled = false;
+	private MemoryCheck memoryCheck;
 
 	InputHandler(Context context, DenoiSegConfig config) {
 		this.config = config;
+		this.random = new Random(config.getSeed());
 		context.inject(this);
 	}
 
+	/**
+	 * @param sourcesOnly if true, the added images are only kept in {@link #getSources()} without tiling them,
+	 * so that other handlers can tile them according to their own configs
+	 */
+	void setSourcesOnly(boolean sourcesOnly) {
+		this.sourcesOnly = sourcesOnly;
+	}
+
 	void setDialog(TrainingProgress dialog) {
 		this.dialog = dialog;
 	}
 
+	void setMetrics(TrainingMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @param check called with the sizes of the images of a directory, read from their metadata, before any of them
+	 * is decoded; the directory is not loaded if the check fails
+	 */
+	void setMemoryCheck(MemoryCheck check) {
+		this.memoryCheck = check;
+	}
+
 	private void unregisterIOEvent() {
-		subscribers = eventService.getSubscribers(IOEvent.class);
-		eventService.unsubscribe(subscribers);
+		synchronized (suppressedIOEvents) {
+			SuppressedSubscribers suppressed = suppressedIOEvents.computeIfAbsent(eventService, service -> new SuppressedSubscribers());
+			if(suppressed.count++ == 0) {
+				suppressed.subscribers = eventService.getSubscribers(IOEvent.class);
+				eventService.unsubscribe(suppressed.subscribers);
+			}
+		}
 	}
 
 	private void registerIOEvent() {
-		eventService.subscribe(subscribers);
+		synchronized (suppressedIOEvents) {
+			SuppressedSubscribers suppressed = suppressedIOEvents.get(eventService);
+			if(suppressed == null) return;
+			if(--suppressed.count == 0) {
+				eventService.subscribe(suppressed.subscribers);
+				suppressedIOEvents.remove(eventService);
+			}
+		}
 	}
 
 	private RandomAccessibleInterval<FloatType> convertToOneHot(RandomAccessibleInterval<IntType> labeling) {
@@ -140,8 +204,11 @@ public class InputHandler {
 		return Views.addDimension(Views.addDimension(channel0, 0, 0), 0, 0);
 	}
 
+	// the image stays in its original type, the values are converted when the sampler copies a patch into a batch
+	@SuppressWarnings("unchecked")
 	private <T extends RealType<T>> RandomAccessibleInterval<FloatType> convertToFloat(RandomAccessibleInterval<T> img) {
-		return opService.copy().rai( (RandomAccessibleInterval<FloatType>)Views.iterable(Converters.convert(img, new RealFloatConverter<T>(), new FloatType())));
+		if(Util.getTypeFromInterval(img) instanceof FloatType) return (RandomAccessibleInterval<FloatType>) img;
+		return Converters.convert(img, new RealFloatConverter<T>(), new FloatType());
 	}
 
 	public void addTrainingData(File trainingRawData, File trainingLabelingData) throws IOException {
@@ -149,22 +216,40 @@ public class InputHandler {
 		logService.info( "Tile training data.." );
 		if(dialog != null) dialog.setCurrentTaskMessage("Tiling training data" );
 
+		if(!fitsMemoryBudget(indexedPixels(trainingRawData), 0)) return;
+
 		unregisterIOEvent();
 
-		for (File file : trainingRawData.listFiles(new DSStoreFilter())) {
-			if(canceled) break;
-			if(file.isDirectory()) continue;
+		try {
+			for (File file : sortedFiles(trainingRawData)) {
+				if(canceled) break;
+				if(file.isDirectory()) continue;
 //					System.out.println(file.getAbsolutePath());
 
-			Img image = (Img) ioService.open(file.getAbsolutePath());
-
-			if(image == null) continue;
-			RandomAccessibleInterval<IntType> labeling = getLabeling(file, trainingLabelingData);
-			RandomAccessibleInterval<FloatType> imageFloat = convertToFloat(image);
-			addTrainingData(imageFloat, labeling);
+				if(loadOnDemand()) {
+					ImageCache.Key key = indexImage(file, trainingLabelingData);
+					if(key != null) addTrainingData(cachedRaw(key), cachedLabeling(key), key);
+					continue;
+				}
+				long start = metrics.start();
+				Img image = (Img) ioService.open(file.getAbsolutePath());
+
+				if(image == null) continue;
+				RandomAccessibleInterval<IntType> labeling = getLabeling(file, trainingLabelingData);
+				RandomAccessibleInterval<FloatType> imageFloat = convertToFloat(image);
+				metrics.stop(TrainingMetrics.Phase.DECODE, start);
+				addTrainingData(imageFloat, labeling);
+			}
+		} finally {
+			registerIOEvent();
 		}
+	}
 
-		registerIOEvent();
+	// the order of listFiles is not defined, the tiles are added in a fixed order to make seeded trainings reproducible
+	private List<File> sortedFiles(File directory) {
+		List<File> files = Arrays.asList(Objects.requireNonNull(directory.listFiles(new DSStoreFilter())));
+		Collections.sort(files);
+		return files;
 	}
 
 	public void addTrainingAndValidationData(File rawData, File labelingData) throws IOException {
@@ -172,97 +257,290 @@ public class InputHandler {
 		logService.info( "Tile training and validation data.." );
 		if(dialog != null) dialog.setCurrentTaskMessage("Tiling training and validation data" );
 
+		// 5% of the labeled tiles are used for validation, see addTrainingAndValidationData(raw, labeling)
+		long pixels = indexedPixels(rawData);
+		if(!fitsMemoryBudget(pixels, (int) (new MemoryEstimator(config).tiles(pixels) * 0.05))) return;
+
 		unregisterIOEvent();
 
-		List<File> files = Arrays.asList(Objects.requireNonNull(rawData.listFiles(new DSStoreFilter())));
-		Collections.shuffle(files);
-		for (File file : files) {
-			if(canceled) break;
-			if(file.isDirectory()) continue;
+		try {
+			List<File> files = sortedFiles(rawData);
+			Collections.shuffle(files, random);
+			for (File file : files) {
+				if(canceled) break;
+				if(file.isDirectory()) continue;
 //					System.out.println(file.getAbsolutePath());
 
-			Img image = (Img) ioService.open(file.getAbsolutePath());
-
-			if(image == null) continue;
-			RandomAccessibleInterval<IntType> labeling = getLabeling(file, labelingData);
-			RandomAccessibleInterval<FloatType> imageFloat = convertToFloat(image);
-			addTrainingAndValidationData(imageFloat, labeling);
+				if(loadOnDemand()) {
+					ImageCache.Key key = indexImage(file, labelingData);
+					if(key != null) addTrainingAndValidationData(cachedRaw(key), cachedLabeling(key), key);
+					continue;
+				}
+				long start = metrics.start();
+				Img image = (Img) ioService.open(file.getAbsolutePath());
+
+				if(image == null) continue;
+				RandomAccessibleInterval<IntType> labeling = getLabeling(file, labelingData);
+				RandomAccessibleInterval<FloatType> imageFloat = convertToFloat(image);
+				metrics.stop(TrainingMetrics.Phase.DECODE, start);
+				addTrainingAndValidationData(imageFloat, labeling);
+			}
+		} finally {
+			registerIOEvent();
 		}
-
-		registerIOEvent();
 	}
 
 	private RandomAccessibleInterval<IntType> getLabeling(File rawFile, File labelingDirectory) {
+		Img label = openLabeling(getLabelingFile(rawFile, labelingDirectory));
+		if(label == null) return null;
+		return convertToInt(label);
+	}
+
+	private File getLabelingFile(File rawFile, File labelingDirectory) {
 		for (File labeling : labelingDirectory.listFiles(new DSStoreFilter())) {
 			if(canceled) break;
-			if(rawFile.getName().equals(labeling.getName())) {
-				try {
-					RandomAccessibleInterval label = (Img) ioService.open(labeling.getAbsolutePath());
+			if(rawFile.getName().equals(labeling.getName())) return labeling;
+		}
+		return null;
+	}
 
-					return convertToInt(label);
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
+	private Img openLabeling(File labeling) {
+		if(labeling == null) return null;
+		try {
+			return (Img) ioService.open(labeling.getAbsolutePath());
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 		return null;
 	}
 
+	private boolean loadOnDemand() {
+		return config.getImageCacheSize() > 0 && config.getTileStoreDirectory() == null;
+	}
+
+	private ImageCache imageCache() {
+		if(imageCache == null) {
+			imageCache = new ImageCache(config.getImageCacheSize(), this::loadImages);
+			logService.info("Loading images on demand, caching up to " + config.getImageCacheSize() / (1024 * 1024) + " MB");
+		}
+		return imageCache;
+	}
+
+	/**
+	 * Records the file names and dimensions of an image and its labeling for loading them on demand. The dimensions
+	 * are read from the metadata of the files, images of formats without metadata support are decoded and cached.
+	 *
+	 * @return the key of the image, null if the image could not be opened
+	 */
+	private ImageCache.Key indexImage(File file, File labelingDirectory) throws IOException {
+		File labelingFile = getLabelingFile(file, labelingDirectory);
+		ImageMetadata raw = readMetadata(file);
+		ImageMetadata labeling = labelingFile != null ? readMetadata(labelingFile) : null;
+		if(raw != null && (labelingFile == null || labeling != null)) {
+			// a labeling is also kept as class indices of one byte per pixel, see cachedLabels
+			long bytesPerPixel = bytesPerPixel(raw) + (labeling != null ? bytesPerPixel(labeling) + 1 : 0);
+			long[] dimensions = raw.getAxesLengths();
+			return new ImageCache.Key(file, labelingFile, dimensions, Intervals.numElements(dimensions) * bytesPerPixel);
+		}
+		long start = metrics.start();
+		Img image = (Img) ioService.open(file.getAbsolutePath());
+		if(image == null) return null;
+		ImageCache.Key key = cacheImage(file, image, labelingFile);
+		metrics.stop(TrainingMetrics.Phase.DECODE, start);
+		return key;
+	}
+
+	/**
+	 * @return the number of pixels of the images in the directory, read from their metadata without decoding them;
+	 * images whose format provides no metadata are not counted
+	 */
+	private long indexedPixels(File directory) {
+		long pixels = 0;
+		for (File file : sortedFiles(directory)) {
+			if(canceled) break;
+			if(file.isDirectory()) continue;
+			ImageMetadata metadata = readMetadata(file);
+			if(metadata == null) {
+				logService.info("The size of " + file.getName() + " is only known after loading it, it is not part of the memory estimate yet.");
+				continue;
+			}
+			pixels += Intervals.numElements(metadata.getAxesLengths());
+		}
+		return pixels;
+	}
+
+	// checks the memory budget with the tiles added so far and the given images before these are loaded
+	private boolean fitsMemoryBudget(long trainingPixels, int validationTiles) {
+		if(memoryCheck == null) return true;
+		return memoryCheck.fits(getTrainingPixels() + trainingPixels, validationData.size() + validationTiles);
+	}
+
+	// parses the header of the file without reading its pixels, null if no SCIFIO format supports the file
+	private ImageMetadata readMetadata(File file) {
+		if(initializeService == null) return null;
+		try {
+			Metadata metadata = initializeService.parseMetadata(new FileLocation(file));
+			ImageMetadata imageMetadata = metadata.get(0);
+			metadata.close(true);
+			return imageMetadata;
+		} catch (FormatException | IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Records the file names and dimensions of a decoded image and its labeling and keeps them in the image cache,
+	 * from where they are dropped once the cache is full.
+	 */
+	private ImageCache.Key cacheImage(File file, Img image, File labelingFile) {
+		Img label = openLabeling(labelingFile);
+		long bytesPerPixel = bytesPerPixel(image) + (label != null ? bytesPerPixel(label) + 1 : 0);
+		ImageCache.Key key = new ImageCache.Key(file, label != null ? labelingFile : null,
+				Intervals.dimensionsAsLongArray(image), Intervals.numElements(image) * bytesPerPixel);
+		imageCache().put(key, new ImageCache.Images(convertToFloat(image), label != null ? convertToInt(label) : null));
+		return key;
+	}
+
+	private static long bytesPerPixel(ImageMetadata metadata) {
+		return Math.max(1, metadata.getBitsPerPixel() / 8);
+	}
+
+	private static long bytesPerPixel(Img<?> image) {
+		Object type = image.firstElement();
+		if(type instanceof RealType) return Math.max(1, ((RealType<?>) type).getBitsPerPixel() / 8);
+		return Float.BYTES;
+	}
+
+	// called by the image cache, possibly from its prefetch thread
+	private ImageCache.Images loadImages(ImageCache.Key key) throws IOException {
+		unregisterIOEvent();
+		try {
+			long start = metrics.start();
+			Img image = (Img) ioService.open(key.raw.getAbsolutePath());
+			if(image == null) throw new IOException("Could not open " + key.raw.getAbsolutePath());
+			if(!Arrays.equals(Intervals.dimensionsAsLongArray(image), key.dimensions)) {
+				throw new IOException("The dimensions of " + key.raw.getAbsolutePath() + " differ from its metadata: "
+						+ Arrays.toString(Intervals.dimensionsAsLongArray(image)) + " instead of " + Arrays.toString(key.dimensions));
+			}
+			RandomAccessibleInterval<IntType> labeling = null;
+			if(key.labeling != null) labeling = convertToInt((Img) ioService.open(key.labeling.getAbsolutePath()));
+			ImageCache.Images images = new ImageCache.Images(convertToFloat(image), labeling);
+			metrics.stop(TrainingMetrics.Phase.DECODE, start);
+			return images;
+		} finally {
+			registerIOEvent();
+		}
+	}
+
+	private CachedImage<FloatType> cachedRaw(ImageCache.Key key) {
+		ImageCache cache = imageCache();
+		return new CachedImage<>(key.dimensions, () -> cache.get(key).raw);
+	}
+
+	private CachedImage<IntType> cachedLabeling(ImageCache.Key key) {
+		if(key.labeling == null) return null;
+		ImageCache cache = imageCache();
+		return new CachedImage<>(key.dimensions, () -> cache.get(key).labeling);
+	}
+
+	// the labeling is compacted when a tile of the loaded image is first read instead of tile by tile while indexing
+	private CachedImage<UnsignedByteType> cachedLabels(ImageCache.Key key) {
+		ImageCache cache = imageCache();
+		return new CachedImage<>(key.dimensions, () -> cache.get(key).labels(labeling -> CompactLabels.compact(convertToOneHot(labeling))));
+	}
+
+	private RandomAccessibleInterval<FloatType> oneHot(RandomAccessibleInterval<IntType> labeling, ImageCache.Key source) {
+		if(source != null && loadOnDemand()) return CompactLabels.expand(cachedLabels(source));
+		return convertToOneHot(labeling);
+	}
+
+	/**
+	 * @return the cache of the images which are loaded on demand, null if all images are kept in memory
+	 */
+	ImageCache getImageCache() {
+		return imageCache;
+	}
+
 	private static <T extends RealType<T>> RandomAccessibleInterval<IntType> convertToInt(RandomAccessibleInterval<T> img) {
 		return Converters.convert(img, new RealIntConverter<T>(), new IntType());
 	}
 
 	public void addTrainingAndValidationData(RandomAccessibleInterval<FloatType> raw, RandomAccessibleInterval<IntType> labeling) {
+		addTrainingAndValidationData(raw, labeling, null);
+	}
+
+	private void addTrainingAndValidationData(RandomAccessibleInterval<FloatType> raw, RandomAccessibleInterval<IntType> labeling, ImageCache.Key source) {
 
 		if (Thread.interrupted()) return;
 
 		logService.info("Training and validation image raw dimensions: " + Arrays.toString(Intervals.dimensionsAsIntArray(raw)));
 //		logService.info("Training image labeling dimensions: " + Arrays.toString(Intervals.dimensionsAsIntArray(labeling)));
+		addSource(sources.trainingAndValidation, raw, labeling);
+		if(sourcesOnly) return;
+		// images loaded on demand are not decoded all at once for the normalization, see finalizeTrainingData
+		if(loadOnDemand()) sources.addStatisticsCandidate(raw);
 
 		if(labeling != null) {
-			RandomAccessibleInterval<FloatType> oneHot = convertToOneHot(labeling);
+			long start = metrics.start();
+			RandomAccessibleInterval<FloatType> oneHot = oneHot(labeling, source);
 			TrainingDataCollection<FloatType> tiles = DenoiSegDataGenerator.createTiles(raw, oneHot, config.getTrainDimensions(), config.getTrainPatchShape(), logService);
+			metrics.stop(TrainingMetrics.Phase.TILING, start);
 //			display(tiles);
 			int numValidation = (int) (tiles.size() * 0.05);
 			int i = 0;
 			for (TrainingData<FloatType> tile : tiles) {
+				tile = storeTile(tile, source);
 				RandomAccessibleInterval<FloatType> channel0 = addTwoDimensions(tile.input);
 				RandomAccessibleInterval<FloatType> channel1 = addBatchDimension(tile.outSegment);
 //				logService.info("Tile dimensions: " + Arrays.toString(Intervals.dimensionsAsIntArray(channel0)));
 				if(i++ < numValidation) {
-					validationData.add(new TrainingData<>(channel0, channel1));
+					validationData.add(new TrainingData<>(channel0, channel1, source));
 				} else {
-					trainingLabeled.add(new TrainingData<>(channel0, channel1));
+					trainingLabeled.add(new TrainingData<>(channel0, channel1, source));
 				}
 			}
 		} else {
+			long start = metrics.start();
 			List<RandomAccessibleInterval<FloatType>> tiles = DenoiSegDataGenerator.createTiles(raw, config.getTrainDimensions(), config.getTrainPatchShape(), logService);
+			metrics.stop(TrainingMetrics.Phase.TILING, start);
 			for (RandomAccessibleInterval<FloatType> tile : tiles) {
-				trainingUnlabeled.add(addTwoDimensions(tile));
+				trainingUnlabeled.add(new TrainingData<>(addTwoDimensions(storeTile(tile)), null, source));
 			}
 		}
 	}
 
 	public void addTrainingData(RandomAccessibleInterval<FloatType> raw, RandomAccessibleInterval<IntType> labeling) {
+		addTrainingData(raw, labeling, null);
+	}
+
+	private void addTrainingData(RandomAccessibleInterval<FloatType> raw, RandomAccessibleInterval<IntType> labeling, ImageCache.Key source) {
 
 		if (Thread.interrupted()) return;
 
 //		logService.info("Training image raw dimensions: " + Arrays.toString(Intervals.dimensionsAsIntArray(raw)));
 //		logService.info("Training image labeling dimensions: " + Arrays.toString(Intervals.dimensionsAsIntArray(labeling)));
+		addSource(sources.training, raw, labeling);
+		if(sourcesOnly) return;
+		if(loadOnDemand()) sources.addStatisticsCandidate(raw);
 
 		if(labeling != null) {
-			RandomAccessibleInterval<FloatType> oneHot = convertToOneHot(labeling);
+			long start = metrics.start();
+			RandomAccessibleInterval<FloatType> oneHot = oneHot(labeling, source);
 			TrainingDataCollection<FloatType> tiles = DenoiSegDataGenerator.createTiles(raw, oneHot, config.getTrainDimensions(), config.getTrainPatchShape(), logService);
+			metrics.stop(TrainingMetrics.Phase.TILING, start);
 			for (TrainingData<FloatType> tile : tiles) {
+				tile = storeTile(tile, source);
 				RandomAccessibleInterval<FloatType> channel0 = addTwoDimensions(tile.input);
 				RandomAccessibleInterval<FloatType> channel1 = addBatchDimension(tile.outSegment);
 //				logService.info("Tile dimensions: " + Arrays.toString(Intervals.dimensionsAsIntArray(channel0)));
-				trainingLabeled.add(new TrainingData<>(channel0, channel1));
+				trainingLabeled.add(new TrainingData<>(channel0, channel1, source));
 			}
 		} else {
+			long start = metrics.start();
 			List<RandomAccessibleInterval<FloatType>> tiles = DenoiSegDataGenerator.createTiles(raw, config.getTrainDimensions(), config.getTrainPatchShape(), logService);
+			metrics.stop(TrainingMetrics.Phase.TILING, start);
 			for (RandomAccessibleInterval<FloatType> tile : tiles) {
-				trainingUnlabeled.add(addTwoDimensions(tile));
+				trainingUnlabeled.add(new TrainingData<>(addTwoDimensions(storeTile(tile)), null, source));
 			}
 		}
 	}
@@ -272,24 +550,78 @@ public class InputHandler {
 		logService.info( "Tile validation data.." );
 		if(dialog != null) dialog.setCurrentTaskMessage("Tiling validation data" );
 
+		if(!fitsMemoryBudget(0, new MemoryEstimator(config).tiles(indexedPixels(validationRawData)))) return;
+
 		unregisterIOEvent();
 
-		for (File file : validationRawData.listFiles(new DSStoreFilter())) {
-			if(canceled) break;
-			if(file.isDirectory()) continue;
+		try {
+			for (File file : sortedFiles(validationRawData)) {
+				if(canceled) break;
+				if(file.isDirectory()) continue;
 
-			Img image = (Img) ioService.open(file.getAbsolutePath());
+				if(loadOnDemand()) {
+					ImageCache.Key key = indexImage(file, validationLabelingData);
+					if(key != null) addValidationData(cachedRaw(key), cachedLabeling(key), key);
+					continue;
+				}
+				long start = metrics.start();
+				Img image = (Img) ioService.open(file.getAbsolutePath());
 
-			RandomAccessibleInterval<IntType> labeling = getLabeling(file, validationLabelingData);
-			RandomAccessibleInterval<FloatType> imageFloat = convertToFloat(image);
-			addValidationData(imageFloat, labeling);
+				RandomAccessibleInterval<IntType> labeling = getLabeling(file, validationLabelingData);
+				RandomAccessibleInterval<FloatType> imageFloat = convertToFloat(image);
+				metrics.stop(TrainingMetrics.Phase.DECODE, start);
+				addValidationData(imageFloat, labeling);
+			}
+		} finally {
+			registerIOEvent();
 		}
 
-		registerIOEvent();
+	}
+
+	/**
+	 * Adds a raw dataset and an optional labeling dataset of a chunked N5 container as training data.
+	 * The datasets are not loaded, each tile reads the blocks it overlaps when it is sampled and the
+	 * most recently used blocks are cached, see {@link DenoiSegConfig#setChunkCacheSize(int)}.
+	 *
+	 * @param labelingDataset the labeling dataset, or null if the raw dataset is unlabeled
+	 */
+	public void addTrainingData(N5Reader container, String rawDataset, String labelingDataset) throws IOException {
+		logService.info( "Tile training data from dataset " + rawDataset + ".." );
+		if(dialog != null) dialog.setCurrentTaskMessage("Tiling training data" );
+		addTrainingData(openChunked(container, rawDataset), openChunkedLabeling(container, labelingDataset));
+	}
 
+	/**
+	 * Like {@link #addTrainingData(N5Reader, String, String)}, but uses 5% of the labeled tiles for validation.
+	 */
+	public void addTrainingAndValidationData(N5Reader container, String rawDataset, String labelingDataset) throws IOException {
+		logService.info( "Tile training and validation data from dataset " + rawDataset + ".." );
+		if(dialog != null) dialog.setCurrentTaskMessage("Tiling training and validation data" );
+		addTrainingAndValidationData(openChunked(container, rawDataset), openChunkedLabeling(container, labelingDataset));
+	}
+
+	public void addValidationData(N5Reader container, String rawDataset, String labelingDataset) throws IOException {
+		logService.info( "Tile validation data from dataset " + rawDataset + ".." );
+		if(dialog != null) dialog.setCurrentTaskMessage("Tiling validation data" );
+		addValidationData(openChunked(container, rawDataset), openChunkedLabeling(container, labelingDataset));
+	}
+
+	private RandomAccessibleInterval<FloatType> openChunked(N5Reader container, String dataset) throws IOException {
+		RandomAccessibleInterval image = N5Utils.openWithBoundedSoftRefCache(container, dataset, config.getChunkCacheSize());
+		return convertToFloat(image);
+	}
+
+	private RandomAccessibleInterval<IntType> openChunkedLabeling(N5Reader container, String dataset) throws IOException {
+		if(dataset == null) return null;
+		RandomAccessibleInterval labeling = N5Utils.openWithBoundedSoftRefCache(container, dataset, config.getChunkCacheSize());
+		return convertToInt(labeling);
 	}
 
 	public void addValidationData(RandomAccessibleInterval<FloatType> validationRaw, RandomAccessibleInterval<IntType> validationLabeling) {
+		addValidationData(validationRaw, validationLabeling, null);
+	}
+
+	private void addValidationData(RandomAccessibleInterval<FloatType> validationRaw, RandomAccessibleInterval<IntType> validationLabeling, ImageCache.Key source) {
 		if(validationLabeling == null) {
 			logService.warn("Validation data without labeling is ignored (this will be improved in the future)");
 			return;
@@ -298,36 +630,153 @@ public class InputHandler {
 		if (Thread.interrupted()) return;
 
 		//		logService.info("Validation image dimensions: " + Arrays.toString(Intervals.dimensionsAsIntArray(validation)));
+		addSource(sources.validation, validationRaw, validationLabeling);
+		if(sourcesOnly) return;
 
-		RandomAccessibleInterval<FloatType> oneHot = convertToOneHot(validationLabeling);
+		long start = metrics.start();
+		RandomAccessibleInterval<FloatType> oneHot = oneHot(validationLabeling, source);
 
 		TrainingDataCollection<FloatType> tiles =
 				DenoiSegDataGenerator.createTiles(validationRaw, oneHot, config.getTrainDimensions(), config.getTrainPatchShape(), logService);
+		metrics.stop(TrainingMetrics.Phase.TILING, start);
 //		uiService.show(tiles);
 		for (TrainingData<FloatType> pair : tiles) {
+			pair = storeTile(pair, source);
 			RandomAccessibleInterval<FloatType> channel0 = addTwoDimensions(pair.input);
 			RandomAccessibleInterval<FloatType> channel1 = addBatchDimension(pair.outSegment);
-			validationData.add(new TrainingData<>(channel0, channel1));
+			validationData.add(new TrainingData<>(channel0, channel1, source));
 		}
 	}
 
-	private RandomAccessibleInterval<FloatType> addBatchDimension(RandomAccessibleInterval<FloatType> img) {
+	/**
+	 * Trains on a bundle written by an earlier training (see {@link DenoiSegConfig#setBundleExport(File)})
+	 * instead of loading and tiling images. Other training data added to this handler is ignored.
+	 */
+	public void addBundle(File file) throws IOException {
+		TrainingBundle bundle = TrainingBundle.open(file);
+		try {
+			if(bundle.getTrainDimensions() != config.getTrainDimensions()) {
+				throw new IOException("The training bundle " + file + " contains " + bundle.getTrainDimensions()
+						+ "D data, the training is configured for " + config.getTrainDimensions() + "D");
+			}
+			if(bundle.getTrainingData().isEmpty() || bundle.getTrainingData().get(0).input.dimension(0) < config.getTrainPatchShape()) {
+				throw new IOException("The tiles of the training bundle " + file + " are smaller than the patch shape " + config.getTrainPatchShape());
+			}
+		} catch (IOException e) {
+			bundle.close();
+			throw e;
+		}
+		if(this.bundle != null) this.bundle.close();
+		this.bundle = bundle;
+		logService.info("Training bundle " + file.getAbsolutePath() + ": " + bundle.getTrainingData().size()
+				+ " tiles, " + bundle.getValidationBatches().size() + " validation batches");
+	}
+
+	/**
+	 * @return the bundle the training data is read from, null if the data is loaded from images
+	 */
+	TrainingBundle getBundle() {
+		return bundle;
+	}
+
+	/**
+	 * Adds images which were loaded by another {@link InputHandler}, e.g. for training several
+	 * configurations on the same data. The images are tiled according to the config of this handler.
+	 */
+	public void addSources(TrainingSources sources) {
+		for (TrainingSources.Source source : sources.trainingAndValidation) {
+			if(canceled) return;
+			addTrainingAndValidationData(source.raw, source.labeling);
+		}
+		for (TrainingSources.Source source : sources.training) {
+			if(canceled) return;
+			addTrainingData(source.raw, source.labeling);
+		}
+		for (TrainingSources.Source source : sources.validation) {
+			if(canceled) return;
+			addValidationData(source.raw, source.labeling);
+		}
+		if(sources.hasStatistics()) this.sources.setStatistics(sources.getMean(), sources.getStdDev());
+	}
+
+	/**
+	 * @return the images added to this handler, before tiling. Empty unless {@link #setSourcesOnly(boolean)}
+	 * was enabled.
+	 */
+	public TrainingSources getSources() {
+		return sources;
+	}
+
+	private void addSource(List<TrainingSources.Source> list, RandomAccessibleInterval<FloatType> raw, RandomAccessibleInterval<IntType> labeling) {
+		if(!sourcesOnly) return;
+		list.add(new TrainingSources.Source(raw, labeling));
+	}
+
+	// the labeling is kept as one byte class index per pixel and only expanded to one-hot while reading
+	private TrainingData<FloatType> storeTile(TrainingData<FloatType> tile, ImageCache.Key source) {
+		// tiles of images loaded on demand already read compacted labels, see cachedLabels
+		if(source != null && loadOnDemand()) return tile;
+		RandomAccessibleInterval<UnsignedByteType> labels = CompactLabels.compact(tile.outSegment);
+		if(config.getTileStoreDirectory() != null) {
+			try {
+				labels = tileStore().addLabels(labels);
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not write to the tile store in " + config.getTileStoreDirectory(), e);
+			}
+		}
+		return new TrainingData<>(storeTile(tile.input), CompactLabels.expand(labels));
+	}
+
+	private RandomAccessibleInterval<FloatType> storeTile(RandomAccessibleInterval<FloatType> tile) {
+		if(config.getTileStoreDirectory() == null) return tile;
+		try {
+			return tileStore().add(tile);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not write to the tile store in " + config.getTileStoreDirectory(), e);
+		}
+	}
+
+	private MappedTileStore tileStore() throws IOException {
+		if(tileStore == null) {
+			tileStore = new MappedTileStore(config.getTileStoreDirectory());
+			logService.info("Storing tiles in " + tileStore.getFile().getAbsolutePath());
+		}
+		return tileStore;
+	}
+
+	static RandomAccessibleInterval<FloatType> addBatchDimension(RandomAccessibleInterval<FloatType> img) {
 		img = Views.addDimension(img, 0, 0);
 		return Views.moveAxis(img, img.numDimensions()-1, img.numDimensions()-2);
 	}
 
 	void finalizeTrainingData() {
-		Collections.shuffle(validationData);
+		if(bundle != null) {
+			trainingData.clear();
+			trainingData.addAll(bundle.getTrainingData());
+			validationData.clear();
+			Collections.shuffle(trainingData, random);
+			return;
+		}
+		Collections.shuffle(validationData, random);
+		// a separate random keeps the order of the tiles independent of the sampled images
+		sources.sampleStatistics(statisticsSampleSize, new Random(config.getSeed()));
 		trainingData.clear();
 		trainingData.addAll(trainingLabeled);
-		CellImgFactory<FloatType> factory = new CellImgFactory<>(new FloatType());
-		for (RandomAccessibleInterval<FloatType> raw : trainingUnlabeled) {
-			long[] dims = new long[raw.numDimensions()];
-			raw.dimensions(dims);
-			dims[dims.length-1] = 3;
-			trainingData.add(new TrainingData<>(raw, factory.create(dims)));
+		// unlabeled tiles share one read-only zero labeling per tile shape
+		Map<List<Long>, RandomAccessibleInterval<FloatType>> zeroLabelings = new HashMap<>();
+		for (TrainingData<FloatType> tile : trainingUnlabeled) {
+			RandomAccessibleInterval<FloatType> raw = tile.input;
+			// raw tiles have a batch and a channel dimension of size 1
+			long[] dims = new long[raw.numDimensions()-2];
+			for (int i = 0; i < dims.length; i++) {
+				dims[i] = raw.dimension(i);
+			}
+			RandomAccessibleInterval<FloatType> zeroLabeling = zeroLabelings.computeIfAbsent(
+					Arrays.stream(dims).boxed().collect(Collectors.toList()),
+					key -> addBatchDimension(CompactLabels.expand(CompactLabels.unlabeled(dims))));
+			trainingData.add(new TrainingData<>(raw, zeroLabeling, tile.source));
 		}
-		Collections.shuffle(trainingData);
+		Collections.shuffle(trainingData, random);
 	}
 
 	TrainingDataCollection<FloatType> getTrainingData() {
@@ -338,6 +787,22 @@ public class InputHandler {
 		return validationData;
 	}
 
+	/**
+	 * @return the number of pixels of all training tiles added so far
+	 */
+	long getTrainingPixels() {
+		if(bundle != null) return pixels(bundle.getTrainingData());
+		return pixels(trainingLabeled) + pixels(trainingUnlabeled);
+	}
+
+	private static long pixels(List<TrainingData<FloatType>> tiles) {
+		long pixels = 0;
+		for (TrainingData<FloatType> tile : tiles) {
+			pixels += Intervals.numElements(tile.input);
+		}
+		return pixels;
+	}
+
 	public TrainingDataCollection<FloatType> getLabeledTrainingPairs() {
 		return trainingLabeled;
 	}
@@ -346,6 +811,50 @@ public class InputHandler {
 		this.canceled = true;
 	}
 
+	/**
+	 * Drops the references to the loaded images and their tiles once the training and validation data
+	 * no longer depends on them, so that they can be garbage collected.
+	 * {@link #finalizeTrainingData()} must not be called afterwards.
+	 */
+	void releaseLoadedImages() {
+		trainingLabeled.clear();
+		trainingUnlabeled.clear();
+		sources.trainingAndValidation.clear();
+		sources.training.clear();
+		sources.validation.clear();
+	}
+
+	/**
+	 * Releases the tile store, the image cache and the bundle, the tiles of this handler must not be used afterwards.
+	 */
+	void dispose() {
+		if(bundle != null) {
+			try {
+				bundle.close();
+			} catch (IOException e) {
+				logService.warn("Could not close the training bundle", e);
+			}
+			bundle = null;
+		}
+		if(imageCache != null) {
+			logService.info("Image cache: " + imageCache.getHits() + " hits, " + imageCache.getMisses() + " misses");
+			imageCache.dispose();
+			imageCache = null;
+		}
+		if(tileStore == null) return;
+		try {
+			tileStore.close();
+		} catch (IOException e) {
+			logService.warn("Could not delete the tile store " + tileStore.getFile().getAbsolutePath(), e);
+		}
+		tileStore = null;
+	}
+
+
+	private static class SuppressedSubscribers {
+		private int count = 0;
+		private List<EventSubscriber<?>> subscribers;
+	}
 
 	/**
 	 * FileFilter used to ignore .DS_Store files when loading images. The .DS_Store files
@@ -0,0 +1,199 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.ByteAccess;
+import net.imglib2.img.basictypeaccess.FloatAccess;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Keeps tiles outside of the Java heap in a memory-mapped file. Each tile is one record of float
+ * pixels in flat iteration order, labels are records of one byte class index per pixel (see {@link CompactLabels}).
+ * The images returned by {@link #add} read the mapped file directly,
+ * so the heap only holds one small image object per tile, independent of the size of the data.
+ * The file is mapped in segments of less than 2 GB, a record never crosses the end of a segment.
+ */
+class MappedTileStore implements Closeable {
+
+	static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+	private final File file;
+	private final RandomAccessFile randomAccessFile;
+	private final FileChannel channel;
+	private final int segmentSize;
+	private MappedByteBuffer segment;
+	private long segmentOffset = 0;
+	private int segmentPosition = 0;
+	private long bytes = 0;
+	private int numRecords = 0;
+
+	MappedTileStore(File directory) throws IOException {
+		this(directory, DEFAULT_SEGMENT_SIZE);
+	}
+
+	MappedTileStore(File directory, int segmentSize) throws IOException {
+		file = File.createTempFile("denoiseg-tiles-", ".bin", directory);
+		file.deleteOnExit();
+		randomAccessFile = new RandomAccessFile(file, "rw");
+		channel = randomAccessFile.getChannel();
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * Copies a tile into the store.
+	 * @return an image of the same dimensions (with min 0) backed by the mapped file
+	 */
+	synchronized ArrayImg<FloatType, MappedFloatAccess> add(RandomAccessibleInterval<? extends RealType<?>> tile) throws IOException {
+		long numPixels = Intervals.numElements(tile);
+		if(numPixels * Float.BYTES > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("A tile of " + numPixels + " pixels exceeds the maximum record size of the tile store.");
+		}
+		FloatBuffer record = allocate((int) numPixels * Float.BYTES).asFloatBuffer();
+		int index = 0;
+		for (RealType<?> pixel : Views.flatIterable(tile)) {
+			record.put(index++, pixel.getRealFloat());
+		}
+		numRecords++;
+		return ArrayImgs.floats(new MappedFloatAccess(record), Intervals.dimensionsAsLongArray(tile));
+	}
+
+	/**
+	 * Copies a class index tile into the store.
+	 * @return an image of the same dimensions (with min 0) backed by the mapped file
+	 */
+	synchronized ArrayImg<UnsignedByteType, MappedByteAccess> addLabels(RandomAccessibleInterval<UnsignedByteType> tile) throws IOException {
+		long numPixels = Intervals.numElements(tile);
+		if(numPixels > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("A tile of " + numPixels + " pixels exceeds the maximum record size of the tile store.");
+		}
+		ByteBuffer record = allocate((int) numPixels);
+		int index = 0;
+		for (UnsignedByteType pixel : Views.flatIterable(tile)) {
+			record.put(index++, pixel.getByte());
+		}
+		numRecords++;
+		return ArrayImgs.unsignedBytes(new MappedByteAccess(record), Intervals.dimensionsAsLongArray(tile));
+	}
+
+	private ByteBuffer allocate(int recordSize) throws IOException {
+		if(segment == null || segment.capacity() - segmentPosition < recordSize) {
+			if(segment != null) segmentOffset += segment.capacity();
+			segment = channel.map(FileChannel.MapMode.READ_WRITE, segmentOffset, Math.max(segmentSize, recordSize));
+			segmentPosition = 0;
+		}
+		ByteBuffer record = segment.duplicate();
+		record.position(segmentPosition);
+		record.limit(segmentPosition + recordSize);
+		segmentPosition += recordSize;
+		bytes += recordSize;
+		return record.slice().order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * @return number of bytes used by the stored tiles
+	 */
+	synchronized long getBytes() {
+		return bytes;
+	}
+
+	synchronized int getNumRecords() {
+		return numRecords;
+	}
+
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * Deletes the file. Images returned by {@link #add} must not be used afterwards,
+	 * the mapped segments are released once they are garbage collected.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		segment = null;
+		channel.close();
+		randomAccessFile.close();
+		if(!file.delete()) file.deleteOnExit();
+	}
+
+	static class MappedByteAccess implements ByteAccess {
+
+		private final ByteBuffer buffer;
+
+		MappedByteAccess(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public byte getValue(int index) {
+			return buffer.get(index);
+		}
+
+		@Override
+		public void setValue(int index, byte value) {
+			buffer.put(index, value);
+		}
+	}
+
+	static class MappedFloatAccess implements FloatAccess {
+
+		private final FloatBuffer buffer;
+
+		MappedFloatAccess(FloatBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public float getValue(int index) {
+			return buffer.get(index);
+		}
+
+		@Override
+		public void setValue(int index, float value) {
+			buffer.put(index, value);
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import java.util.Locale;
+
+/**
+ * Approximates the memory a DenoiSeg training needs before any data is loaded or
+ * any graph is run. The estimate consists of
+ * <ul>
+ *     <li>the U-Net weights including gradients and optimizer state,</li>
+ *     <li>the activations of a training step (kept for the backward pass, plus their gradients)
+ *     or of the concurrent validation runs, whichever is larger,</li>
+ *     <li>the training batch on the Java side and as tensors,</li>
+ *     <li>the tiles and the prepared validation batches on the Java side.</li>
+ * </ul>
+ */
+public class MemoryEstimator {
+
+	private static final int baseFilters = 32;
+	private static final int convsPerLevel = 2;
+	private static final int kernelSize = 3;
+	private static final int bytesPerFloat = 4;
+	// convolution, batch normalization and activation output of each convolution layer
+	private static final int tensorsPerConv = 3;
+	// weights, gradients and the two moments of the Adam optimizer
+	private static final int copiesPerWeight = 4;
+	// input, denoising target (value and mask) and segmentation target (three classes)
+	private static final int channelsPerSample = 1 + 2 + 3;
+	// input, denoised output and segmentation output (three classes)
+	private static final int channelsPerPrediction = 1 + 1 + 3;
+	// augmentation multiplies the validation tiles, each of them is prepared as a validation patch
+	private static final int augmentationFactor = 8;
+
+	private final DenoiSegConfig config;
+
+	public MemoryEstimator(DenoiSegConfig config) {
+		this.config = config;
+	}
+
+	private long patchPixels() {
+		return (long) Math.pow(config.getTrainPatchShape(), config.getTrainDimensions());
+	}
+
+	private long kernelPixels() {
+		return (long) Math.pow(kernelSize, config.getTrainDimensions());
+	}
+
+	/**
+	 * @return the bytes of all intermediate network outputs of a forward pass of one patch
+	 */
+	long activationBytesPerPatch() {
+		int dims = config.getTrainDimensions();
+		int depth = config.getNetworkDepth();
+		long elements = 0;
+		for (int level = 0; level < depth; level++) {
+			long pixels = patchPixels() >> (dims * level);
+			long filters = (long) baseFilters << level;
+			// down path: convolutions and pooling
+			elements += pixels * filters * convsPerLevel * tensorsPerConv;
+			elements += (pixels >> dims) * filters;
+			// up path: upsampling, concatenation and convolutions
+			elements += pixels * filters * 2;
+			elements += pixels * filters * 3;
+			elements += pixels * filters * convsPerLevel * tensorsPerConv;
+		}
+		long bottomPixels = patchPixels() >> (dims * depth);
+		elements += bottomPixels * ((long) baseFilters << depth) * convsPerLevel * tensorsPerConv;
+		// denoising output, segmentation logits and softmax
+		elements += patchPixels() * (1 + 3 + 3);
+		return elements * bytesPerFloat;
+	}
+
+	/**
+	 * @return the bytes of the network weights including gradients and optimizer state
+	 */
+	long weightBytes() {
+		int depth = config.getNetworkDepth();
+		long weights = 0;
+		for (int level = 0; level < depth; level++) {
+			long filters = (long) baseFilters << level;
+			long inputFilters = level == 0 ? 1 : filters / 2;
+			weights += kernelPixels() * (inputFilters * filters + filters * filters);
+			weights += kernelPixels() * (filters * 3 * filters + filters * filters);
+		}
+		long bottomFilters = (long) baseFilters << depth;
+		weights += kernelPixels() * (bottomFilters / 2 * bottomFilters + bottomFilters * bottomFilters);
+		return weights * copiesPerWeight * bytesPerFloat;
+	}
+
+	/**
+	 * @return the bytes used by TensorFlow for training or validating with the given batch size
+	 */
+	long graphBytes(int batchSize) {
+		long training = 2 * activationBytesPerPatch() * batchSize;
+		long validation = activationBytesPerPatch() * batchSize * Math.max(1, config.getValidationThreads());
+		return weightBytes() + Math.max(training, validation);
+	}
+
+	/**
+	 * @param dimensions number of spatial axes of the model
+	 * @param networkDepth number of pooling levels of the U-Net
+	 * @return the bytes needed per pixel of a tile when predicting it: the activations of the forward pass
+	 * and the input and both outputs on the Java side and as tensors
+	 */
+	public static long predictionBytesPerPixel(int dimensions, int networkDepth) {
+		DenoiSegConfig config = new DenoiSegConfig().setTrainDimensions(dimensions);
+		config.setNetworkDepth(networkDepth);
+		// the smallest patch the network accepts, each level halves it without remainder
+		config.setPatchShape(1 << networkDepth);
+		MemoryEstimator estimator = new MemoryEstimator(config);
+		return estimator.activationBytesPerPatch() / estimator.patchPixels() + 2 * channelsPerPrediction * bytesPerFloat;
+	}
+
+	/**
+	 * @param pixels number of pixels of images which are not tiled yet
+	 * @return the approximate number of tiles cut from these images, see {@link DenoiSegDataGenerator}
+	 */
+	public int tiles(long pixels) {
+		long tilePixels = (long) Math.pow(2 * config.getTrainPatchShape(), config.getTrainDimensions());
+		return (int) Math.min(Integer.MAX_VALUE, pixels / tilePixels);
+	}
+
+	/**
+	 * @return the bytes of one training batch as image and as tensors
+	 */
+	long batchBytes(int batchSize) {
+		return 2 * patchPixels() * batchSize * channelsPerSample * bytesPerFloat;
+	}
+
+	/**
+	 * @param trainingPixels number of pixels of all training tiles
+	 * @param validationTiles number of validation tiles before augmentation
+	 * @return the bytes of the tiles and the prepared validation batches
+	 */
+	long dataBytes(long trainingPixels, int validationTiles) {
+		// raw values and one byte class index per pixel of the tiles
+		long tiles = trainingPixels * (bytesPerFloat + 1);
+		// images loaded on demand only occupy the image cache, which also holds the class indices of their labeling
+		if(config.getImageCacheSize() > 0 && config.getTileStoreDirectory() == null) {
+			tiles = Math.min(tiles, config.getImageCacheSize());
+		}
+		long validation = 2 * (long) validationTiles * augmentationFactor * patchPixels() * channelsPerSample * bytesPerFloat;
+		return tiles + validation;
+	}
+
+	/**
+	 * @param batchSize the training batch size
+	 * @param trainingPixels number of pixels of all training tiles, 0 if not known yet
+	 * @param validationTiles number of validation tiles before augmentation, 0 if not known yet
+	 * @return the estimated number of bytes needed by the training
+	 */
+	public long estimate(int batchSize, long trainingPixels, int validationTiles) {
+		return graphBytes(batchSize) + batchBytes(batchSize) + dataBytes(trainingPixels, validationTiles);
+	}
+
+	/**
+	 * @return the largest batch size up to {@code maxBatchSize} whose estimate fits into {@code budget}, or 0 if there is none
+	 */
+	public int largestFittingBatchSize(long budget, int maxBatchSize, long trainingPixels, int validationTiles) {
+		for (int batchSize = maxBatchSize; batchSize > 0; batchSize--) {
+			if(estimate(batchSize, trainingPixels, validationTiles) <= budget) return batchSize;
+		}
+		return 0;
+	}
+
+	public static String format(long bytes) {
+		if(bytes < 1024 * 1024) return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.);
+		if(bytes < 1024L * 1024 * 1024) return String.format(Locale.ROOT, "%.1f MB", bytes / 1024. / 1024.);
+		return String.format(Locale.ROOT, "%.2f GB", bytes / 1024. / 1024. / 1024.);
+	}
+}
@@ -41,12 +41,30 @@ import org.scijava.display.DisplayService;
 import org.scijava.plugin.Parameter;
 import org.scijava.ui.UIService;
 
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Keeps the sample images written with each checkpoint and renders the training preview.
+ * The preview is rendered on a background thread from the fetched network outputs, which are
+ * already copied out of their tensors, so the training thread only hands them over.
+ * Headless trainings never render a preview, they only keep the checkpoint samples.
+ */
 public class PreviewHandler {
 
 	@Parameter
 	private UIService uiService;
 
 	private final int trainDimensions;
+	private final int interval;
+	private final boolean headless;
+	private ExecutorService executor;
+	private Future<?> pendingUpdate;
+	private ForkJoinPool workerPool;
+
 	private RandomAccessibleInterval<FloatType> trainingImage;
 	private RandomAccessibleInterval<FloatType> validationImage;
 
@@ -55,20 +73,47 @@ public class PreviewHandler {
 	private RandomAccessibleInterval<FloatType> outputSegmentImage;
 
 	public PreviewHandler(Context context, int trainDimensions) {
+		this(context, trainDimensions, 1, false);
+	}
+
+	/**
+	 * @param interval number of epochs between two preview updates
+	 * @param headless whether the preview is skipped and only the checkpoint samples are kept
+	 */
+	public PreviewHandler(Context context, int trainDimensions, int interval, boolean headless) {
 		context.inject(this);
 		this.trainDimensions = trainDimensions;
+		this.interval = Math.max(1, interval);
+		this.headless = headless;
 	}
 
+	/**
+	 * Stores the checkpoint samples and schedules a preview update if one is due in this epoch.
+	 * The images are expected to be copies which are not modified after this call.
+	 */
 	public void updateValidationPreview(RandomAccessibleInterval<FloatType> in,
 	                                    RandomAccessibleInterval<FloatType> outDenoise,
 	                                    RandomAccessibleInterval<FloatType> outSegment,
-	                                    boolean isHeadless, DenoiSegOutputHandler outputHandler, boolean canceledOrStopped) {
+	                                    DenoiSegOutputHandler outputHandler, int epoch, int numEpochs,
+	                                    boolean canceledOrStopped) {
 
 		if (Thread.interrupted()) return;
 
 		setSamples(denormalize(in, outputHandler), denormalize(outDenoise, outputHandler), outSegment);
 
-		if(isHeadless || canceledOrStopped) return;
+		if(headless || canceledOrStopped) return;
+		boolean lastEpoch = epoch == numEpochs - 1;
+		if(!lastEpoch && epoch % interval != 0) return;
+		// skip this update if the previous one is still rendering, the last epoch is queued in any case
+		if(!lastEpoch && pendingUpdate != null && !pendingUpdate.isDone()) return;
+
+		// the preview thread keeps the updates in order, the rendering itself runs on the worker pool
+		pendingUpdate = executor().submit(() -> WorkerPools.run(workerPool, () -> renderPreview(in, outDenoise, outSegment)));
+	}
+
+	private void renderPreview(RandomAccessibleInterval<FloatType> in,
+	                           RandomAccessibleInterval<FloatType> outDenoise,
+	                           RandomAccessibleInterval<FloatType> outSegment) {
 
 		long[] dims = new long[in.numDimensions()-1];
 		int channelCount = 5;
@@ -76,7 +121,7 @@ public class PreviewHandler {
 		for (int i = 1; i < dims.length; i++) {
 			dims[i] = in.dimension(i);
 		}
-		if(validationImage == null) {
+		if(validationImage == null || !Arrays.equals(Intervals.dimensionsAsLongArray(validationImage), dims)) {
 			validationImage = new ArrayImgFactory<>(new FloatType()).create(dims);
 		}
 		long[] minSize = new long[dims.length*2];
@@ -85,6 +130,7 @@ public class PreviewHandler {
 			minSize[i+dims.length] = in.dimension(i);
 		}
 		for (int i = 0; i < channelCount; i++) {
+			if (Thread.currentThread().isInterrupted()) return;
 			minSize[0] = i*in.dimension(0);
 			FinalInterval interval = Intervals.createMinSize(minSize);
 			RandomAccessibleInterval<FloatType> source;
@@ -130,4 +176,32 @@ public class PreviewHandler {
 	RandomAccessibleInterval<FloatType> getExampleOutputSegment() {
 		return outputSegmentImage;
 	}
+
+	/**
+	 * @param pool the pool the preview is rendered on, null for the common pool
+	 */
+	void setWorkerPool(ForkJoinPool pool) {
+		this.workerPool = pool;
+	}
+
+	/**
+	 * Stops the preview thread. A queued update, e.g. the one of the last epoch, is still rendered unless
+	 * the training was canceled; the thread is a daemon and does not keep the JVM alive.
+	 */
+	void dispose(boolean canceled) {
+		if(executor == null) return;
+		if(canceled) executor.shutdownNow();
+		else executor.shutdown();
+	}
+
+	private ExecutorService executor() {
+		if(executor == null) {
+			executor = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "denoiseg-preview");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return executor;
+	}
 }
@@ -0,0 +1,153 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Reports the progress of the training steps at a limited rate.
+ * The console gets one summary line per interval (and for the last step of each epoch) with the mean
+ * losses of the steps since the previous line. UI updates are coalesced: only the latest state is kept
+ * and at most one UI update is queued at any time.
+ */
+public class ProgressReporter {
+
+	public static class Progress {
+		final int epoch;
+		final int numEpochs;
+		final int step;
+		final int stepsPerEpoch;
+		final float loss;
+		final float segLoss;
+		final float denoiseLoss;
+		final float learningRate;
+
+		public Progress(int epoch, int numEpochs, int step, int stepsPerEpoch, float loss, float segLoss, float denoiseLoss, float learningRate) {
+			this.epoch = epoch;
+			this.numEpochs = numEpochs;
+			this.step = step;
+			this.stepsPerEpoch = stepsPerEpoch;
+			this.loss = loss;
+			this.segLoss = segLoss;
+			this.denoiseLoss = denoiseLoss;
+			this.learningRate = learningRate;
+		}
+
+		public int getEpoch() {
+			return epoch;
+		}
+
+		public int getStep() {
+			return step;
+		}
+	}
+
+	private static final int barSize = 10;
+
+	private final long intervalNanos;
+	private final DenoiSegConfig.ConsoleFormat format;
+	private final PrintStream out;
+	private final Consumer<Runnable> uiQueue;
+	private final Consumer<Progress> uiUpdate;
+
+	private final AtomicReference<Progress> latest = new AtomicReference<>();
+	private final AtomicBoolean uiUpdatePending = new AtomicBoolean(false);
+	private long lastConsoleReport = System.nanoTime();
+	private long lastUiReport = 0;
+	private int intervalSteps = 0;
+	private double intervalLoss = 0;
+	private double intervalSegLoss = 0;
+	private double intervalDenoiseLoss = 0;
+
+	/**
+	 * @param uiQueue executes UI updates, e.g. on the event dispatch thread; null to not update any UI
+	 * @param uiUpdate applies the latest progress to the UI
+	 */
+	public ProgressReporter(long intervalMillis, DenoiSegConfig.ConsoleFormat format, PrintStream out,
+	                        Consumer<Runnable> uiQueue, Consumer<Progress> uiUpdate) {
+		this.intervalNanos = intervalMillis * 1000000;
+		this.format = format;
+		this.out = out;
+		this.uiQueue = uiQueue;
+		this.uiUpdate = uiUpdate;
+	}
+
+	public void step(Progress progress) {
+		latest.set(progress);
+		long now = System.nanoTime();
+		boolean lastStepOfEpoch = progress.step == progress.stepsPerEpoch;
+		if(uiQueue != null && (lastStepOfEpoch || now - lastUiReport >= intervalNanos)
+				&& uiUpdatePending.compareAndSet(false, true)) {
+			lastUiReport = now;
+			uiQueue.accept(() -> {
+				uiUpdatePending.set(false);
+				uiUpdate.accept(latest.get());
+			});
+		}
+		intervalSteps++;
+		intervalLoss += progress.loss;
+		intervalSegLoss += progress.segLoss;
+		intervalDenoiseLoss += progress.denoiseLoss;
+		if(lastStepOfEpoch || now - lastConsoleReport >= intervalNanos) {
+			double stepsPerSecond = intervalSteps / Math.max(1e-9, (now - lastConsoleReport) / 1e9);
+			out.println(format(progress, stepsPerSecond));
+			lastConsoleReport = now;
+			intervalSteps = 0;
+			intervalLoss = 0;
+			intervalSegLoss = 0;
+			intervalDenoiseLoss = 0;
+		}
+	}
+
+	public Progress getLatest() {
+		return latest.get();
+	}
+
+	String format(Progress progress, double stepsPerSecond) {
+		double loss = intervalLoss / intervalSteps;
+		double segLoss = intervalSegLoss / intervalSteps;
+		double denoiseLoss = intervalDenoiseLoss / intervalSteps;
+		if(format == DenoiSegConfig.ConsoleFormat.MACHINE) {
+			return String.format(Locale.ROOT, "{\"epoch\":%d,\"step\":%d,\"stepsPerEpoch\":%d,\"steps\":%d,\"loss\":%f,\"segLoss\":%f,\"denoiseLoss\":%f,\"learningRate\":%g,\"stepsPerSecond\":%.3f}",
+					progress.epoch, progress.step, progress.stepsPerEpoch, intervalSteps, loss, segLoss, denoiseLoss, progress.learningRate, stepsPerSecond);
+		}
+		int done = progress.step * barSize / progress.stepsPerEpoch;
+		StringBuilder bar = new StringBuilder("[");
+		for (int i = 0; i < barSize; i++) {
+			bar.append(i < done ? '*' : '-');
+		}
+		bar.append("]");
+		return String.format(Locale.ROOT, "Epoch %d/%d %d / %d %s - loss: %f seg loss: %f denoise loss: %f lr: %f (%.1f steps/s)",
+				progress.epoch, progress.numEpochs, progress.step, progress.stepsPerEpoch, bar, loss, segLoss, denoiseLoss, progress.learningRate, stepsPerSecond);
+	}
+}
@@ -0,0 +1,177 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import org.tensorflow.Session;
+import org.tensorflow.Tensor;
+import org.tensorflow.Tensors;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes the halo a tiled prediction needs for the DenoiSeg U-Net, i.e. how far the output at a pixel can
+ * be influenced by input pixels. The theoretical halo follows from the architecture, the measured halo from the
+ * response of the trained network to a single bright pixel, which is usually smaller.
+ */
+class ReceptiveField {
+
+	static final int kernelSize = 3;
+	static final int convsPerLevel = 2;
+	static final int poolSize = 2;
+	// differences below this fraction of the strongest response are numerical noise
+	private static final float relativeThreshold = 1e-4f;
+
+	/**
+	 * @return the halo of a U-Net with {@link #convsPerLevel} convolutions of size {@link #kernelSize} per level
+	 */
+	static int halo(int networkDepth) {
+		return halo(networkDepth, convsPerLevel, kernelSize);
+	}
+
+	/**
+	 * @return half the receptive field of a U-Net with the given depth, number of convolutions per level and
+	 * convolution kernel size, using max pooling and upsampling by {@link #poolSize}
+	 */
+	static int halo(int networkDepth, int convsPerLevel, int kernelSize) {
+		long field = 1;
+		long scale = 1;
+		for (int level = 0; level < networkDepth; level++) {
+			field += scale * convsPerLevel * (kernelSize - 1);
+			field += scale * (poolSize - 1);
+			scale *= poolSize;
+		}
+		field += scale * convsPerLevel * (kernelSize - 1);
+		for (int level = networkDepth - 1; level >= 0; level--) {
+			scale /= poolSize;
+			field += scale * convsPerLevel * (kernelSize - 1);
+		}
+		return (int) (field / 2);
+	}
+
+	/**
+	 * @return the size of a tile which contains the theoretical halo on both sides of its center pixel
+	 * and fits the shape constraints of a U-Net of the given depth, e.g. 208 for depth 4
+	 */
+	static int probeSize(int networkDepth) {
+		int step = (int) Math.pow(poolSize, networkDepth);
+		return (2 * halo(networkDepth) + 1 + step - 1) / step * step;
+	}
+
+	/**
+	 * Predicts an empty tile and the same tile with a single bright pixel in its center and returns the largest
+	 * distance from the center at which any output differs. The two tiles are predicted one after the other.
+	 *
+	 * @param size the size of the probed tile in each axis, it has to fit the shape constraints of the model
+	 * @param learningPhaseOp the learning phase placeholder of the graph, null if it has none
+	 */
+	static int measureHalo(Session session, int dimensions, int size, String inputOp, String learningPhaseOp, List<String> outputOps) {
+		int pixels = (int) Math.pow(size, dimensions);
+		float[] empty = new float[pixels];
+		float[] impulse = new float[pixels];
+		int center = 0;
+		for (int d = 0; d < dimensions; d++) center = center * size + size / 2;
+		impulse[center] = 1;
+		List<Output> emptyOutputs = predict(session, dimensions, size, empty, inputOp, learningPhaseOp, outputOps);
+		List<Output> impulseOutputs = predict(session, dimensions, size, impulse, inputOp, learningPhaseOp, outputOps);
+		int halo = 0;
+		for (int i = 0; i < emptyOutputs.size(); i++) {
+			float[] emptyValues = emptyOutputs.get(i).values;
+			float[] values = Arrays.copyOf(emptyValues, 2 * emptyValues.length);
+			System.arraycopy(impulseOutputs.get(i).values, 0, values, emptyValues.length, emptyValues.length);
+			long[] shape = emptyOutputs.get(i).shape.clone();
+			shape[0] = 2;
+			halo = Math.max(halo, impulseHalo(values, shape));
+		}
+		return halo;
+	}
+
+	private static class Output {
+		final float[] values;
+		final long[] shape;
+
+		Output(float[] values, long[] shape) {
+			this.values = values;
+			this.shape = shape;
+		}
+	}
+
+	private static List<Output> predict(Session session, int dimensions, int size, float[] input,
+	                                    String inputOp, String learningPhaseOp, List<String> outputOps) {
+		long[] shape = new long[dimensions + 2];
+		shape[0] = 1;
+		for (int d = 1; d <= dimensions; d++) shape[d] = size;
+		shape[dimensions + 1] = 1;
+		List<Output> result = new ArrayList<>();
+		try (Tensor<Float> inputTensor = Tensor.create(shape, FloatBuffer.wrap(input));
+		     Tensor<Boolean> learningPhase = Tensors.create(false)) {
+			Session.Runner runner = session.runner().feed(inputOp, inputTensor);
+			if(learningPhaseOp != null) runner.feed(learningPhaseOp, learningPhase);
+			outputOps.forEach(runner::fetch);
+			List<Tensor<?>> outputs = runner.run();
+			for (Tensor<?> output : outputs) {
+				FloatBuffer values = FloatBuffer.allocate(output.numElements());
+				output.writeTo(values);
+				result.add(new Output(values.array(), output.shape()));
+			}
+			outputs.forEach(Tensor::close);
+		}
+		return result;
+	}
+
+	/**
+	 * @param values network output for a batch of two tiles, the first one predicted from an empty input,
+	 *               the second one from an input with a single bright pixel in its center
+	 * @param shape tensor shape of the output, batch axis first and channel axis last
+	 * @return the largest distance from the center, in any axis, at which the two outputs differ
+	 */
+	static int impulseHalo(float[] values, long[] shape) {
+		int dimensions = shape.length - 2;
+		int channels = (int) shape[shape.length - 1];
+		int perTile = values.length / 2;
+		float strongest = 0;
+		for (int i = 0; i < perTile; i++) {
+			strongest = Math.max(strongest, Math.abs(values[perTile + i] - values[i]));
+		}
+		int halo = 0;
+		if(strongest == 0) return halo;
+		for (int i = 0; i < perTile; i++) {
+			if(Math.abs(values[perTile + i] - values[i]) <= strongest * relativeThreshold) continue;
+			int position = i / channels;
+			for (int d = dimensions; d >= 1; d--) {
+				int size = (int) shape[d];
+				halo = Math.max(halo, Math.abs(position % size - size / 2));
+				position /= size;
+			}
+		}
+		return halo;
+	}
+}
@@ -0,0 +1,90 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import org.tensorflow.Graph;
+import org.tensorflow.SavedModelBundle;
+import org.tensorflow.Session;
+import org.tensorflow.framework.ConfigProto;
+import org.tensorflow.framework.GPUOptions;
+import org.tensorflow.framework.GraphOptions;
+import org.tensorflow.framework.OptimizerOptions;
+
+/**
+ * Translates the TensorFlow related settings of a {@link DenoiSegConfig} into a {@link ConfigProto}.
+ * The options apply to the training session and to the sessions of exported models opened by the training,
+ * e.g. for measuring the halo. The prediction commands run the model through imagej-modelzoo, which creates
+ * its session without options, so predictions use the TensorFlow defaults.
+ */
+public class SessionConfig {
+
+	private SessionConfig() {
+	}
+
+	public static ConfigProto create(DenoiSegConfig config) {
+		ConfigProto.Builder builder = ConfigProto.newBuilder();
+		if(config.getIntraOpThreads() > 0) builder.setIntraOpParallelismThreads(config.getIntraOpThreads());
+		if(config.getInterOpThreads() > 0) builder.setInterOpParallelismThreads(config.getInterOpThreads());
+		// the global thread pools are sized by the first session of the process,
+		// explicit thread counts only apply reliably to sessions with their own pools
+		if(config.getIntraOpThreads() > 0 || config.getInterOpThreads() > 0) builder.setUsePerSessionThreads(true);
+		if(config.getAllowMemoryGrowth() || config.getMemoryFraction() > 0) {
+			GPUOptions.Builder gpuOptions = GPUOptions.newBuilder();
+			gpuOptions.setAllowGrowth(config.getAllowMemoryGrowth());
+			if(config.getMemoryFraction() > 0) gpuOptions.setPerProcessGpuMemoryFraction(config.getMemoryFraction());
+			builder.setGpuOptions(gpuOptions);
+		}
+		if(config.getOptimizerLevel() != DenoiSegConfig.GraphOptimizerLevel.DEFAULT) {
+			OptimizerOptions.Level level = config.getOptimizerLevel() == DenoiSegConfig.GraphOptimizerLevel.L0 ?
+					OptimizerOptions.Level.L0 : OptimizerOptions.Level.L1;
+			builder.setGraphOptions(GraphOptions.newBuilder()
+					.setOptimizerOptions(OptimizerOptions.newBuilder().setOptLevel(level)));
+		}
+		return builder.build();
+	}
+
+	public static boolean isDefault(DenoiSegConfig config) {
+		return create(config).equals(ConfigProto.getDefaultInstance());
+	}
+
+	public static Session createSession(Graph graph, DenoiSegConfig config) {
+		if(isDefault(config)) return new Session(graph);
+		return new Session(graph, create(config).toByteArray());
+	}
+
+	/**
+	 * Loads the saved model with the {@code serve} tag into a session with the options of the config.
+	 */
+	public static SavedModelBundle loadSavedModel(String exportDir, DenoiSegConfig config) {
+		SavedModelBundle.Loader loader = SavedModelBundle.loader(exportDir).withTags("serve");
+		if(!isDefault(config)) loader.withConfigProto(create(config).toByteArray());
+		return loader.load();
+	}
+
+}
@@ -0,0 +1,99 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.AbstractWrappedInterval;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.transform.integer.MixedTransform;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.MixedTransformView;
+import net.imglib2.view.Views;
+
+/**
+ * A batch whose pixels are stored in one array in the memory layout of the TensorFlow tensor it is fed as,
+ * so that {@link BatchTensors} can hand over the array instead of converting pixel by pixel.
+ * The batch is accessed in the usual (x, y[, z], b, c) dimension order.
+ */
+class TensorBatch extends AbstractWrappedInterval<Interval> implements RandomAccessibleInterval<FloatType> {
+
+	private final float[] data;
+	private final long[] tensorShape;
+	private final RandomAccessibleInterval<FloatType> view;
+
+	/**
+	 * @param dimensions dimensions of the batch in the order (x, y[, z], b, c)
+	 * @param mapping the tensor dimension of each batch dimension, as passed to the TensorFlowConverter
+	 */
+	TensorBatch(long[] dimensions, int[] mapping) {
+		super(new FinalInterval(dimensions));
+		int n = dimensions.length;
+		int[] batchDimension = new int[n];
+		for (int d = 0; d < n; d++) {
+			batchDimension[mapping[d]] = d;
+		}
+		tensorShape = new long[n];
+		long[] bufferDimensions = new long[n];
+		int[] component = new int[n];
+		for (int k = 0; k < n; k++) {
+			tensorShape[k] = dimensions[batchDimension[k]];
+			// tensors are row-major, the last tensor dimension is the first dimension of the buffer
+			bufferDimensions[n - 1 - k] = tensorShape[k];
+			component[n - 1 - k] = batchDimension[k];
+		}
+		ArrayImg<FloatType, FloatArray> buffer = ArrayImgs.floats(bufferDimensions);
+		data = buffer.update(null).getCurrentStorageArray();
+		MixedTransform transform = new MixedTransform(n, n);
+		transform.setComponentMapping(component);
+		view = Views.interval(new MixedTransformView<>(buffer, transform), sourceInterval);
+	}
+
+	float[] getData() {
+		return data;
+	}
+
+	long[] getTensorShape() {
+		return tensorShape.clone();
+	}
+
+	@Override
+	public RandomAccess<FloatType> randomAccess() {
+		return view.randomAccess();
+	}
+
+	@Override
+	public RandomAccess<FloatType> randomAccess(Interval interval) {
+		return view.randomAccess(interval);
+	}
+}
@@ -48,7 +48,7 @@ class TrainUtils {
 		for (int i = 0; i < trainingData.size(); i++) {
 			TrainingData<FloatType> data = trainingData.get(i);
 			TrainingData<FloatType> newData = new TrainingData<>(
-					TrainUtils.normalizeConverter(data.input, mean, stdDev), data.outSegment);
+					TrainUtils.normalizeConverter(data.input, mean, stdDev), data.outSegment, data.source);
 			trainingData.set(i, newData);
 		}
 	}
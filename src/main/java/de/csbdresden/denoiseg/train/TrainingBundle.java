@@ -0,0 +1,291 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Prepared training data in one file: the normalized training tiles with their labels as class indices
+ * (see {@link CompactLabels}), the normalization statistics and the validation batches with their blind spots.
+ * A training started from a bundle skips loading, tiling, normalization and the preparation of the
+ * validation batches. The file is read through memory-mapped windows, the tiles are not copied onto the heap.
+ * <p>
+ * Layout, all numbers little endian: the magic {@code DSGB}, the format version, the number of training
+ * dimensions, mean, standard deviation, the number of tiles and the number of validation batches, followed
+ * by the raw image and the class indices of each tile and by input, denoising target and segmentation target
+ * of each validation batch. Each image starts with its number of dimensions and its dimensions, byte images
+ * are padded to a multiple of four bytes.
+ * </p>
+ */
+class TrainingBundle implements Closeable {
+
+	static final int VERSION = 1;
+
+	private static final byte[] MAGIC = "DSGB".getBytes(StandardCharsets.US_ASCII);
+	private static final int HEADER_BYTES = 28;
+	private static final int WINDOW_SIZE = 1 << 30;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final int trainDimensions;
+	private final float mean;
+	private final float stdDev;
+	private final TrainingDataCollection<FloatType> trainingData = new TrainingDataCollection<>();
+	private final ProcessedTrainingDataCollection<FloatType> validationBatches = new ProcessedTrainingDataCollection<>();
+	private ByteBuffer window;
+	private long windowOffset;
+	private long position;
+
+	private TrainingBundle(File bundle) throws IOException {
+		file = new RandomAccessFile(bundle, "r");
+		channel = file.getChannel();
+		try {
+			ByteBuffer header = read(HEADER_BYTES);
+			byte[] magic = new byte[MAGIC.length];
+			header.get(magic);
+			if(!new String(magic, StandardCharsets.US_ASCII).equals("DSGB")) {
+				throw new IOException(bundle + " is not a DenoiSeg training bundle");
+			}
+			int version = header.getInt();
+			if(version > VERSION) {
+				throw new IOException(bundle + " has bundle format version " + version + ", only versions up to " + VERSION + " are supported");
+			}
+			trainDimensions = header.getInt();
+			mean = header.getFloat();
+			stdDev = header.getFloat();
+			int numTiles = header.getInt();
+			int numValidationBatches = header.getInt();
+			for (int i = 0; i < numTiles; i++) {
+				RandomAccessibleInterval<FloatType> input = readFloats();
+				RandomAccessibleInterval<UnsignedByteType> labels = readBytes();
+				trainingData.add(new TrainingData<>(input, InputHandler.addBatchDimension(CompactLabels.expand(labels))));
+			}
+			for (int i = 0; i < numValidationBatches; i++) {
+				validationBatches.add(new ProcessedTrainingData<>(readFloats(), readFloats(), readFloats()));
+			}
+		} catch (IOException | RuntimeException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Opens a bundle written by {@link #write}, it has to be closed once the training is done.
+	 */
+	static TrainingBundle open(File bundle) throws IOException {
+		return new TrainingBundle(bundle);
+	}
+
+	/**
+	 * @param tiles normalized training tiles of shape (x, y[, z], 1, 1) with one-hot labels of shape (x, y[, z], 1, 3), before augmentation
+	 */
+	static void write(File bundle, int trainDimensions, float mean, float stdDev,
+			TrainingDataCollection<FloatType> tiles, ProcessedTrainingDataCollection<FloatType> validationBatches) throws IOException {
+		try (RandomAccessFile out = new RandomAccessFile(bundle, "rw");
+		     Writer writer = new Writer(out.getChannel())) {
+			out.setLength(0);
+			writer.buffer.put(MAGIC);
+			writer.putInt(VERSION);
+			writer.putInt(trainDimensions);
+			writer.putFloat(mean);
+			writer.putFloat(stdDev);
+			writer.putInt(tiles.size());
+			writer.putInt(validationBatches.size());
+			for (TrainingData<FloatType> tile : tiles) {
+				writer.putFloats(tile.input);
+				// drop the batch dimension, the labels are stored as (x, y[, z]) class indices
+				writer.putBytes(CompactLabels.compact(Views.hyperSlice(tile.outSegment, tile.outSegment.numDimensions() - 2, 0)));
+			}
+			for (ProcessedTrainingData<FloatType> batch : validationBatches) {
+				writer.putFloats(batch.input);
+				writer.putFloats(batch.outDenoise);
+				writer.putFloats(batch.outSegment);
+			}
+		}
+	}
+
+	private RandomAccessibleInterval<FloatType> readFloats() throws IOException {
+		long[] dims = readDimensions();
+		long numPixels = Intervals.numElements(dims);
+		checkRecordSize(numPixels * Float.BYTES);
+		ByteBuffer record = read((int) numPixels * Float.BYTES);
+		return ArrayImgs.floats(new MappedTileStore.MappedFloatAccess(record.asFloatBuffer()), dims);
+	}
+
+	private RandomAccessibleInterval<UnsignedByteType> readBytes() throws IOException {
+		long[] dims = readDimensions();
+		long numPixels = Intervals.numElements(dims);
+		checkRecordSize(numPixels + 3);
+		ByteBuffer record = read(padded((int) numPixels));
+		return ArrayImgs.unsignedBytes(new MappedTileStore.MappedByteAccess(record), dims);
+	}
+
+	private long[] readDimensions() throws IOException {
+		int numDimensions = read(Integer.BYTES).getInt();
+		if(numDimensions < 1 || numDimensions > 8) throw new IOException("Invalid number of dimensions in training bundle: " + numDimensions);
+		ByteBuffer buffer = read(numDimensions * Long.BYTES);
+		long[] dims = new long[numDimensions];
+		for (int i = 0; i < numDimensions; i++) {
+			dims[i] = buffer.getLong();
+		}
+		return dims;
+	}
+
+	private static void checkRecordSize(long bytes) throws IOException {
+		if(bytes > WINDOW_SIZE) throw new IOException("Training bundle contains an image of " + bytes + " bytes, which exceeds the maximum of " + WINDOW_SIZE);
+	}
+
+	// records never cross the end of a window, a new window is mapped at the start of a record which does not fit
+	private ByteBuffer read(int size) throws IOException {
+		if(position + size > channel.size()) throw new IOException("Training bundle is truncated");
+		if(window == null || position + size > windowOffset + window.capacity()) {
+			windowOffset = position;
+			window = channel.map(FileChannel.MapMode.READ_ONLY, windowOffset, Math.min(WINDOW_SIZE, channel.size() - windowOffset));
+		}
+		ByteBuffer record = window.duplicate();
+		record.position((int) (position - windowOffset));
+		record.limit(record.position() + size);
+		position += size;
+		return record.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static int padded(int bytes) {
+		return (bytes + 3) / 4 * 4;
+	}
+
+	int getTrainDimensions() {
+		return trainDimensions;
+	}
+
+	float getMean() {
+		return mean;
+	}
+
+	float getStdDev() {
+		return stdDev;
+	}
+
+	TrainingDataCollection<FloatType> getTrainingData() {
+		return trainingData;
+	}
+
+	ProcessedTrainingDataCollection<FloatType> getValidationBatches() {
+		return validationBatches;
+	}
+
+	/**
+	 * Closes the file, the mapped windows are released once the images of this bundle are garbage collected.
+	 */
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+		file.close();
+	}
+
+	private static class Writer implements Closeable {
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+		Writer(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		void putInt(int value) throws IOException {
+			ensure(Integer.BYTES);
+			buffer.putInt(value);
+		}
+
+		void putFloat(float value) throws IOException {
+			ensure(Float.BYTES);
+			buffer.putFloat(value);
+		}
+
+		void putFloats(RandomAccessibleInterval<? extends RealType<?>> image) throws IOException {
+			putDimensions(image);
+			for (RealType<?> pixel : Views.flatIterable(image)) {
+				putFloat(pixel.getRealFloat());
+			}
+		}
+
+		void putBytes(RandomAccessibleInterval<UnsignedByteType> image) throws IOException {
+			putDimensions(image);
+			long numPixels = Intervals.numElements(image);
+			for (UnsignedByteType pixel : Views.flatIterable(image)) {
+				ensure(1);
+				buffer.put(pixel.getByte());
+			}
+			for (long i = numPixels; i < padded((int) numPixels); i++) {
+				ensure(1);
+				buffer.put((byte) 0);
+			}
+		}
+
+		private void putDimensions(RandomAccessibleInterval<?> image) throws IOException {
+			putInt(image.numDimensions());
+			for (int i = 0; i < image.numDimensions(); i++) {
+				ensure(Long.BYTES);
+				buffer.putLong(image.dimension(i));
+			}
+		}
+
+		private void ensure(int bytes) throws IOException {
+			if(buffer.remaining() < bytes) flush();
+		}
+
+		private void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+}
@@ -34,9 +34,16 @@ import net.imglib2.type.numeric.RealType;
 public class TrainingData<T extends RealType<T>> {
 	public RandomAccessibleInterval<T> input;
 	public RandomAccessibleInterval<T> outSegment;
+	// the lazily loaded image this tile was cut from, null if the image is resident
+	final ImageCache.Key source;
 
 	public TrainingData(RandomAccessibleInterval<T> input, RandomAccessibleInterval<T> outSegment) {
+		this(input, outSegment, null);
+	}
+
+	TrainingData(RandomAccessibleInterval<T> input, RandomAccessibleInterval<T> outSegment, ImageCache.Key source) {
 		this.input = input;
 		this.outSegment = outSegment;
+		this.source = source;
 	}
 }
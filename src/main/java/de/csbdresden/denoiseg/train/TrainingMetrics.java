@@ -0,0 +1,181 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Records how much time the training spends in each of its phases.
+ * For every {@link Phase} the number of recordings, the total duration and
+ * percentiles over a rolling window of the most recent recordings are kept.
+ * Optionally, one JSON line per epoch is appended to a file.
+ */
+public class TrainingMetrics {
+
+	public enum Phase {
+		DECODE, TILING, NORMALIZATION, SAMPLING, BLIND_SPOT, TENSOR_CONVERSION, SESSION_RUN, VALIDATION, CHECKPOINT
+	}
+
+	private static final int windowSize = 1000;
+
+	private final Map<Phase, PhaseStatistics> statistics = new EnumMap<>(Phase.class);
+	private File jsonLog;
+	private long patches = 0;
+	private long patchNanos = 0;
+	private long epochPatches = 0;
+	private long epochStart = System.nanoTime();
+	private double lastEpochPatchesPerSecond = 0;
+
+	public TrainingMetrics() {
+		for (Phase phase : Phase.values()) {
+			statistics.put(phase, new PhaseStatistics());
+		}
+	}
+
+	public void setJsonLog(File file) {
+		this.jsonLog = file;
+	}
+
+	public long start() {
+		return System.nanoTime();
+	}
+
+	public void stop(Phase phase, long start) {
+		record(phase, System.nanoTime() - start);
+	}
+
+	public void record(Phase phase, long nanos) {
+		statistics.get(phase).record(nanos);
+	}
+
+	/**
+	 * Records that {@code count} patches were trained on in {@code nanos} nanoseconds.
+	 */
+	public synchronized void addPatches(long count, long nanos) {
+		patches += count;
+		patchNanos += nanos;
+		epochPatches += count;
+	}
+
+	public PhaseStatistics get(Phase phase) {
+		return statistics.get(phase);
+	}
+
+	/**
+	 * @return the number of trained patches per second of training step time since the start of the training
+	 */
+	public synchronized double getPatchesPerSecond() {
+		if(patchNanos == 0) return 0;
+		return patches / (patchNanos / 1e9);
+	}
+
+	/**
+	 * @return the number of trained patches per second of wall time during the last finished epoch
+	 */
+	public synchronized double getLastEpochPatchesPerSecond() {
+		return lastEpochPatchesPerSecond;
+	}
+
+	synchronized void epochDone(int epoch) {
+		long now = System.nanoTime();
+		lastEpochPatchesPerSecond = epochPatches / ((now - epochStart) / 1e9);
+		epochPatches = 0;
+		epochStart = now;
+		if(jsonLog == null) return;
+		try (Writer writer = new FileWriter(jsonLog, true)) {
+			writer.write(toJson(epoch));
+			writer.write(System.lineSeparator());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	synchronized String toJson(int epoch) {
+		StringBuilder json = new StringBuilder();
+		json.append(String.format(Locale.ROOT, "{\"epoch\":%d,\"patches\":%d,\"patchesPerSecond\":%.3f,\"epochPatchesPerSecond\":%.3f,\"phases\":{",
+				epoch, patches, getPatchesPerSecond(), lastEpochPatchesPerSecond));
+		boolean first = true;
+		for (Map.Entry<Phase, PhaseStatistics> entry : statistics.entrySet()) {
+			if(!first) json.append(",");
+			first = false;
+			PhaseStatistics phase = entry.getValue();
+			json.append(String.format(Locale.ROOT, "\"%s\":{\"count\":%d,\"totalMs\":%.3f,\"meanMs\":%.3f,\"p50Ms\":%.3f,\"p90Ms\":%.3f,\"p99Ms\":%.3f}",
+					entry.getKey().name().toLowerCase(Locale.ROOT), phase.getCount(), phase.getTotalMillis(), phase.getMeanMillis(),
+					phase.getPercentileMillis(50), phase.getPercentileMillis(90), phase.getPercentileMillis(99)));
+		}
+		json.append("}}");
+		return json.toString();
+	}
+
+	public static class PhaseStatistics {
+
+		private final long[] window = new long[windowSize];
+		private long count = 0;
+		private long totalNanos = 0;
+
+		synchronized void record(long nanos) {
+			window[(int) (count % windowSize)] = nanos;
+			count++;
+			totalNanos += nanos;
+		}
+
+		public synchronized long getCount() {
+			return count;
+		}
+
+		public synchronized double getTotalMillis() {
+			return totalNanos / 1e6;
+		}
+
+		public synchronized double getMeanMillis() {
+			if(count == 0) return 0;
+			return totalNanos / 1e6 / count;
+		}
+
+		/**
+		 * @param percentile value between 0 and 100
+		 * @return the percentile of the most recent recordings in milliseconds
+		 */
+		public synchronized double getPercentileMillis(double percentile) {
+			int size = (int) Math.min(count, windowSize);
+			if(size == 0) return 0;
+			long[] sorted = Arrays.copyOf(window, size);
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(percentile / 100. * size) - 1;
+			return sorted[Math.max(0, Math.min(size - 1, index))] / 1e6;
+		}
+	}
+}
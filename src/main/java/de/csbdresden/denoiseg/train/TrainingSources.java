@@ -0,0 +1,142 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The decoded images added to an {@link InputHandler}, before tiling. They can be added to other
+ * handlers via {@link InputHandler#addSources(TrainingSources)}, the images are shared and only read.
+ */
+public class TrainingSources {
+
+	static class Source {
+		final RandomAccessibleInterval<FloatType> raw;
+		final RandomAccessibleInterval<IntType> labeling;
+
+		Source(RandomAccessibleInterval<FloatType> raw, RandomAccessibleInterval<IntType> labeling) {
+			this.raw = raw;
+			this.labeling = labeling;
+		}
+	}
+
+	final List<Source> trainingAndValidation = new ArrayList<>();
+	final List<Source> training = new ArrayList<>();
+	final List<Source> validation = new ArrayList<>();
+	private float mean = Float.NaN;
+	private float stdDev = Float.NaN;
+	private long count = 0;
+	private double sum = 0;
+	private double sumOfSquares = 0;
+	// training images loaded on demand, only a sample of them is decoded for the statistics
+	private final List<RandomAccessibleInterval<FloatType>> statisticsCandidates = new ArrayList<>();
+
+	public int size() {
+		return trainingAndValidation.size() + training.size() + validation.size();
+	}
+
+	/**
+	 * Computes mean and standard deviation of all training images once, trainings on these sources
+	 * use them for normalization instead of computing them from their tiles.
+	 */
+	public void computeStatistics() {
+		count = 0;
+		sum = 0;
+		sumOfSquares = 0;
+		List<Source> trainingSources = new ArrayList<>(trainingAndValidation);
+		trainingSources.addAll(training);
+		for (Source source : trainingSources) {
+			accumulate(source.raw);
+		}
+		updateStatistics();
+	}
+
+	/**
+	 * Adds a training image which is not kept in memory to the images the statistics are sampled from,
+	 * see {@link #sampleStatistics(int, Random)}.
+	 */
+	void addStatisticsCandidate(RandomAccessibleInterval<FloatType> raw) {
+		statisticsCandidates.add(raw);
+	}
+
+	/**
+	 * Computes mean and standard deviation of up to {@code maxImages} randomly chosen candidates,
+	 * so that only these images are decoded for the normalization.
+	 */
+	void sampleStatistics(int maxImages, Random random) {
+		if(statisticsCandidates.isEmpty()) return;
+		List<RandomAccessibleInterval<FloatType>> sample = new ArrayList<>(statisticsCandidates);
+		Collections.shuffle(sample, random);
+		for (RandomAccessibleInterval<FloatType> raw : sample.subList(0, Math.min(maxImages, sample.size()))) {
+			accumulate(raw);
+		}
+		statisticsCandidates.clear();
+		updateStatistics();
+	}
+
+	private void accumulate(RandomAccessibleInterval<FloatType> raw) {
+		for (FloatType pixel : Views.iterable(raw)) {
+			double value = pixel.getRealDouble();
+			sum += value;
+			sumOfSquares += value * value;
+			count++;
+		}
+	}
+
+	private void updateStatistics() {
+		if(count < 2) return;
+		double mean = sum / count;
+		setStatistics((float) mean, (float) Math.sqrt((sumOfSquares - count * mean * mean) / (count - 1)));
+	}
+
+	void setStatistics(float mean, float stdDev) {
+		this.mean = mean;
+		this.stdDev = stdDev;
+	}
+
+	boolean hasStatistics() {
+		return !Float.isNaN(mean);
+	}
+
+	float getMean() {
+		return mean;
+	}
+
+	float getStdDev() {
+		return stdDev;
+	}
+}
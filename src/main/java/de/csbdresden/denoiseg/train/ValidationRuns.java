@@ -0,0 +1,113 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs the validation batches of an epoch concurrently. The batches feed tensors which are closed once
+ * the validation is done, so no batch may still be running when {@link #run} returns.
+ */
+final class ValidationRuns {
+
+	private ValidationRuns() {
+	}
+
+	/**
+	 * Runs all batches on the executor and waits until each of them finished or was skipped. Batches which did
+	 * not start yet are skipped once {@code skip} returns true, a batch failed or the calling thread was interrupted.
+	 * Batches which already started are always awaited, an interrupt is restored after they finished.
+	 *
+	 * @return for each batch whether it finished
+	 */
+	static boolean[] run(ExecutorService executor, int batches, IntConsumer batch, BooleanSupplier skip) {
+		boolean[] done = new boolean[batches];
+		CountDownLatch finished = new CountDownLatch(batches);
+		AtomicBoolean aborted = new AtomicBoolean(false);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		for (int i = 0; i < batches; i++) {
+			final int index = i;
+			try {
+				executor.execute(() -> {
+					try {
+						if (aborted.get() || skip.getAsBoolean()) return;
+						batch.accept(index);
+						done[index] = true;
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+						aborted.set(true);
+					} finally {
+						finished.countDown();
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				finished.countDown();
+			}
+		}
+		boolean interrupted = false;
+		while (true) {
+			try {
+				finished.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+				aborted.set(true);
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+		Throwable cause = failure.get();
+		if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+		if (cause instanceof Error) throw (Error) cause;
+		if (cause != null) throw new IllegalStateException(cause);
+		return done;
+	}
+
+	/**
+	 * Shuts the executor down and waits until its running batches finished, so that their tensors can be closed.
+	 */
+	static void shutdown(ExecutorService executor) {
+		executor.shutdownNow();
+		boolean interrupted = false;
+		while (true) {
+			try {
+				if (executor.awaitTermination(1, TimeUnit.MINUTES)) break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+}
@@ -0,0 +1,81 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the Java side work of a training on a pool limited to its share of the cores, see
+ * {@link DenoiSegConfig#setWorkerThreads(int)}. Parallel streams and multi-threaded loops started by a task of
+ * the pool fork their subtasks into the same pool.
+ */
+final class WorkerPools {
+
+	private WorkerPools() {
+	}
+
+	/**
+	 * @return a pool with the given number of threads, null for 0 threads
+	 */
+	static ForkJoinPool create(int threads) {
+		if(threads <= 0) return null;
+		AtomicInteger threadCount = new AtomicInteger();
+		return new ForkJoinPool(threads, pool -> {
+			WorkerThread thread = new WorkerThread(pool);
+			thread.setName("denoiseg-worker-" + threadCount.incrementAndGet());
+			return thread;
+		}, null, false);
+	}
+
+	/**
+	 * Runs the task on the pool and waits for it. Without a pool, or if the pool was already shut down,
+	 * the task runs in the calling thread.
+	 */
+	static void run(ForkJoinPool pool, Runnable task) {
+		if(pool == null) {
+			task.run();
+			return;
+		}
+		try {
+			pool.submit(task).join();
+		} catch (RejectedExecutionException e) {
+			task.run();
+		}
+	}
+
+	// worker threads of a fork join pool are daemon threads
+	private static class WorkerThread extends ForkJoinWorkerThread {
+		WorkerThread(ForkJoinPool pool) {
+			super(pool);
+		}
+	}
+}
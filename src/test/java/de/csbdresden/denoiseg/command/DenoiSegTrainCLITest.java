@@ -0,0 +1,81 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.command;
+
+import de.csbdresden.denoiseg.train.DenoiSegConfig;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DenoiSegTrainCLITest {
+
+	@Test
+	public void testCreateConfigFromArguments() throws IOException {
+		Properties properties = DenoiSegTrainCLI.parseArguments("--numEpochs", "3", "--batchSize=16", "--optimizerLevel", "L0", "--restoreBestModel", "true");
+		DenoiSegConfig config = DenoiSegTrainCLI.createConfig(properties);
+		assertEquals(3, config.getNumEpochs());
+		assertEquals(16, config.getTrainBatchSize());
+		assertEquals(DenoiSegConfig.GraphOptimizerLevel.L0, config.getOptimizerLevel());
+		assertTrue(config.getRestoreBestModel());
+		assertEquals(new DenoiSegConfig().getStepsPerEpoch(), config.getStepsPerEpoch());
+	}
+
+	@Test
+	public void testInvalidArguments() {
+		assertEquals(DenoiSegTrainCLI.EXIT_INVALID_ARGUMENTS, DenoiSegTrainCLI.run());
+		assertEquals(DenoiSegTrainCLI.EXIT_INVALID_ARGUMENTS, DenoiSegTrainCLI.run("--numEpochs"));
+		assertEquals(DenoiSegTrainCLI.EXIT_INVALID_ARGUMENTS, DenoiSegTrainCLI.run("--numEpochs", "many", "--output", "out"));
+	}
+
+	@Test
+	public void testUnknownOptions() {
+		assertEquals(DenoiSegTrainCLI.EXIT_INVALID_ARGUMENTS, DenoiSegTrainCLI.run("--numEpoch", "3",
+				"--trainingRawData", "raw", "--trainingLabelingData", "labeling", "--output", "out"));
+		try {
+			DenoiSegTrainCLI.checkKeys(DenoiSegTrainCLI.parseArguments("--numEpoch", "3", "--batchsize", "8"));
+			fail();
+		} catch (IllegalArgumentException | IOException e) {
+			assertEquals("Unknown options: batchsize, numEpoch", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testValidationFoldersGivenTogether() throws IOException {
+		assertEquals(DenoiSegTrainCLI.EXIT_INVALID_ARGUMENTS, DenoiSegTrainCLI.run("--trainingRawData", "raw",
+				"--trainingLabelingData", "labeling", "--validationRawData", "validation", "--output", "out"));
+		assertEquals(DenoiSegTrainCLI.EXIT_INVALID_ARGUMENTS, DenoiSegTrainCLI.run("--trainingRawData", "raw",
+				"--trainingLabelingData", "labeling", "--validationLabelingData", "validation", "--output", "out"));
+		DenoiSegTrainCLI.checkKeys(DenoiSegTrainCLI.parseArguments("--validationRawData", "raw", "--validationLabelingData", "labeling"));
+	}
+}
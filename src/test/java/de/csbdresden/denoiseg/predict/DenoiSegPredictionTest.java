@@ -0,0 +1,162 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.predict;
+
+import de.csbdresden.denoiseg.train.MemoryEstimator;
+import io.bioimage.specification.DefaultInputNodeSpecification;
+import io.bioimage.specification.InputNodeSpecification;
+import net.imagej.ImageJ;
+import net.imagej.modelzoo.ModelZooArchive;
+import net.imagej.modelzoo.ModelZooService;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DenoiSegPredictionTest {
+
+	private ImageJ ij;
+	private ModelZooArchive model;
+
+	@Before
+	public void setUp() throws Exception {
+		ij = new ImageJ();
+		ij.ui().setHeadless(true);
+		String modelPath = getClass().getResource("/denoiseg-dummy.bioimage.io.zip").getPath();
+		model = ij.get(ModelZooService.class).io().open(new File(modelPath));
+	}
+
+	@After
+	public void tearDown() {
+		ij.context().dispose();
+	}
+
+	@Test
+	public void testBytesPerPixelFromSpecification() {
+		assertEquals(MemoryEstimator.predictionBytesPerPixel(2, 4), DenoiSegPrediction.bytesPerPixel(spec("byxc", 16)));
+		assertEquals(MemoryEstimator.predictionBytesPerPixel(3, 2), DenoiSegPrediction.bytesPerPixel(spec("bzyxc", 4)));
+		assertTrue(DenoiSegPrediction.bytesPerPixel(spec("byxc", 16)) > DenoiSegPrediction.bytesPerPixel(spec("byxc", 4)));
+		// no U-Net step
+		assertEquals(0, DenoiSegPrediction.bytesPerPixel(spec("byxc", 12)));
+	}
+
+	private static InputNodeSpecification spec(String axes, int step) {
+		InputNodeSpecification spec = new DefaultInputNodeSpecification();
+		spec.setAxes(axes);
+		Integer[] steps = new Integer[axes.length()];
+		for (int d = 0; d < axes.length(); d++) steps[d] = axes.charAt(d) == 'c' || axes.charAt(d) == 'b' ? 0 : step;
+		spec.setShapeStep(Arrays.asList(steps));
+		return spec;
+	}
+
+	@Test
+	public void testBatchMatchesSinglePredictions() throws Exception {
+		RandomAccessibleInterval<FloatType> a = randomImage(32, 32, 1);
+		RandomAccessibleInterval<FloatType> b = randomImage(32, 32, 2);
+		RandomAccessibleInterval<FloatType> c = randomImage(32, 32, 3);
+
+		List<RandomAccessibleInterval<FloatType>> inputs = Arrays.asList(a, b, c);
+		DenoiSegPrediction batchPrediction = prediction();
+		List<DenoiSegOutput<?, ?>> batch = batchPrediction.predictBatch(inputs, "XY");
+		// all images were predicted as one batch
+		assertEquals(0, batchPrediction.getUnstackedCount());
+		DenoiSegPrediction single = prediction();
+		for (int i = 0; i < inputs.size(); i++) {
+			DenoiSegOutput<?, ?> expected = single.predict(inputs.get(i), "XY");
+			assertEqualPixels(expected.getDenoised(), batch.get(i).getDenoised());
+			assertEqualPixels(expected.getSegmented(), batch.get(i).getSegmented());
+		}
+	}
+
+	@Test
+	public void testShapeBucketIsCropped() throws Exception {
+		RandomAccessibleInterval<FloatType> full = randomImage(32, 32, 4);
+		RandomAccessibleInterval<FloatType> small = randomImage(30, 28, 5);
+
+		DenoiSegPrediction prediction = prediction();
+		prediction.setShapeBucket(32);
+		List<DenoiSegOutput<?, ?>> batch = prediction.predictBatch(Arrays.asList(full, small), "XY");
+		assertEquals(0, prediction.getUnstackedCount());
+
+		// the small image is padded to the bucket shape in the same way before predicting it alone
+		RandomAccessibleInterval<FloatType> padded = Views.interval(Views.extendMirrorDouble(small), new FinalInterval(32, 32));
+		DenoiSegOutput<?, ?> expected = prediction().predict(padded, "XY");
+		assertEquals(30, batch.get(1).getDenoised().dimension(0));
+		assertEquals(28, batch.get(1).getDenoised().dimension(1));
+		assertEqualPixels(crop(expected.getDenoised(), 30, 28), batch.get(1).getDenoised());
+		assertEqualPixels(crop(expected.getSegmented(), 30, 28), batch.get(1).getSegmented());
+	}
+
+	private DenoiSegPrediction prediction() {
+		DenoiSegPrediction prediction = new DenoiSegPrediction(ij.context());
+		prediction.setTrainedModel(model);
+		return prediction;
+	}
+
+	private static RandomAccessibleInterval<FloatType> randomImage(long width, long height, long seed) {
+		Random random = new Random(seed);
+		RandomAccessibleInterval<FloatType> img = ArrayImgs.floats(width, height);
+		Views.iterable(img).forEach(pixel -> pixel.set(random.nextFloat()));
+		return img;
+	}
+
+	private static <T> RandomAccessibleInterval<T> crop(RandomAccessibleInterval<T> img, long width, long height) {
+		long[] max = Intervals.maxAsLongArray(img);
+		max[0] = img.min(0) + width - 1;
+		max[1] = img.min(1) + height - 1;
+		return Views.interval(img, Intervals.minAsLongArray(img), max);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void assertEqualPixels(RandomAccessibleInterval<?> expected, RandomAccessibleInterval<?> actual) {
+		assertArrayEquals(Intervals.dimensionsAsLongArray(expected), Intervals.dimensionsAsLongArray(actual));
+		Cursor<? extends RealType<?>> expectedCursor = Views.flatIterable((RandomAccessibleInterval<? extends RealType<?>>) expected).cursor();
+		Cursor<? extends RealType<?>> actualCursor = Views.flatIterable((RandomAccessibleInterval<? extends RealType<?>>) actual).cursor();
+		while (expectedCursor.hasNext()) {
+			double difference = Math.abs(expectedCursor.next().getRealDouble() - actualCursor.next().getRealDouble());
+			assertTrue("difference " + difference, difference < 1e-4);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.predict;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PredictionTilingTest {
+
+	@Test
+	public void testSingleTileIfItFits() {
+		PredictionTiling tiling = new PredictionTiling(new long[]{500, 300}, new int[]{16, 16}, new int[]{16, 16}, new int[]{96, 96}, 1);
+		tiling.plan(Long.MAX_VALUE);
+		assertTrue(tiling.fits());
+		assertEquals(1, tiling.getNumTiles());
+		// no halo for a single tile, only padding to the shape step
+		assertArrayEquals(new long[]{512, 304}, tiling.getTileShape());
+		assertEquals(512. * 304 / (500 * 300) - 1, tiling.getOverlapOverhead(), 1e-9);
+	}
+
+	@Test
+	public void testSplitsLargestAxisUntilTileFits() {
+		PredictionTiling tiling = new PredictionTiling(new long[]{2000, 500}, new int[]{16, 16}, new int[]{16, 16}, new int[]{96, 96}, 1);
+		tiling.plan(704 * 512);
+		assertTrue(tiling.fits());
+		assertTrue(tiling.getTilePixels() <= 704 * 512);
+		assertArrayEquals(new int[]{4, 1}, tiling.getGrid());
+		// 2000 / 4 + 2 * 96 = 692, padded to 704
+		assertArrayEquals(new long[]{704, 512}, tiling.getTileShape());
+		assertEquals(4, tiling.getNumTiles());
+		assertTrue(tiling.getOverlapOverhead() > 0);
+	}
+
+	@Test
+	public void testFewerTilesForSmallerHalo() {
+		long[] dims = {1024, 1024};
+		int[] min = {16, 16};
+		long budget = 400 * 400;
+		PredictionTiling large = new PredictionTiling(dims, min, min, new int[]{96, 96}, 1).plan(budget);
+		PredictionTiling small = new PredictionTiling(dims, min, min, new int[]{22, 22}, 1).plan(budget);
+		assertTrue(small.getNumTiles() < large.getNumTiles());
+		assertTrue(small.getOverlapOverhead() < large.getOverlapOverhead());
+	}
+
+	@Test
+	public void testBatchCountsTowardsTileSize() {
+		PredictionTiling tiling = new PredictionTiling(new long[]{256, 256}, new int[]{16, 16}, new int[]{16, 16}, new int[]{0, 0}, 4);
+		tiling.plan(256 * 256);
+		assertTrue(tiling.fits());
+		assertEquals(4, tiling.getNumTiles());
+	}
+
+	@Test
+	public void testDoesNotFit() {
+		PredictionTiling tiling = new PredictionTiling(new long[]{200, 200}, new int[]{16, 16}, new int[]{16, 16}, new int[]{96, 96}, 1);
+		tiling.plan(100);
+		assertFalse(tiling.fits());
+		// splitting would only add halo, the image is predicted as one tile
+		assertEquals(1, tiling.getNumTiles());
+	}
+}
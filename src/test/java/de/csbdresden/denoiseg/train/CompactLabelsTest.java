@@ -0,0 +1,80 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CompactLabelsTest {
+
+	@Test
+	public void testExpandRestoresOneHot() {
+		Random random = new Random(0);
+		RandomAccessibleInterval<FloatType> oneHot = ArrayImgs.floats(8, 6, 3);
+		RandomAccess<FloatType> oneHotRA = oneHot.randomAccess();
+		for (int y = 0; y < 6; y++) {
+			for (int x = 0; x < 8; x++) {
+				// class 3 leaves all channels zero, like unlabeled tiles
+				int c = random.nextInt(4);
+				if(c == 3) continue;
+				oneHotRA.setPosition(new long[]{x, y, c});
+				oneHotRA.get().setOne();
+			}
+		}
+		RandomAccessibleInterval<UnsignedByteType> classIndex = CompactLabels.compact(oneHot);
+		assertArrayEquals(new long[]{8, 6}, Intervals.dimensionsAsLongArray(classIndex));
+		RandomAccessibleInterval<FloatType> expanded = CompactLabels.expand(classIndex);
+		assertArrayEquals(Intervals.dimensionsAsLongArray(oneHot), Intervals.dimensionsAsLongArray(expanded));
+		Cursor<FloatType> expected = Views.flatIterable(oneHot).cursor();
+		Cursor<FloatType> actual = Views.flatIterable(expanded).cursor();
+		while (expected.hasNext()) {
+			assertEquals(expected.next().get(), actual.next().get(), 0);
+		}
+	}
+
+	@Test
+	public void testUnlabeledExpandsToZero() {
+		RandomAccessibleInterval<FloatType> expanded = CompactLabels.expand(CompactLabels.unlabeled(4, 4));
+		for (FloatType pixel : Views.iterable(expanded)) {
+			assertEquals(0, pixel.get(), 0);
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+
+public class DenoiSegDataWrapperTest {
+
+	@Test
+	public void testSameSeedGivesIdenticalBatches() {
+		TrainingDataCollection<FloatType> tiles = createTiles(32, 32);
+		DenoiSegDataWrapper<FloatType> wrapper1 = createWrapper(tiles, 1);
+		DenoiSegDataWrapper<FloatType> wrapper2 = createWrapper(tiles, 1);
+		assertEqualBatches(wrapper1, wrapper2);
+	}
+
+	@Test
+	public void test3DSamplerMatchesGenericPath() {
+		TrainingDataCollection<FloatType> tiles = createTiles(24, 24, 24);
+		FinalDimensions shape = new FinalDimensions(16, 16, 16);
+		DenoiSegDataWrapper<FloatType> generic = new DenoiSegDataWrapper<>(tiles, 4, 1.6, shape, 5,
+				DenoiSegDataWrapper::uniform_withCP, new SplittableRandom(3));
+		DenoiSegDataWrapper<FloatType> fast = new DenoiSegDataWrapper<>(tiles, 4, 1.6, shape, 5,
+				DenoiSegDataWrapper.uniformWithCP(), new SplittableRandom(3));
+		assertEqualBatches(generic, fast);
+	}
+
+	private void assertEqualBatches(DenoiSegDataWrapper<FloatType> wrapper1, DenoiSegDataWrapper<FloatType> wrapper2) {
+		for (int epoch = 0; epoch < 2; epoch++) {
+			for (int i = 0; i < wrapper1.numBatches(); i++) {
+				ProcessedTrainingData<FloatType> batch1 = wrapper1.getItem(i);
+				ProcessedTrainingData<FloatType> batch2 = wrapper2.getItem(i);
+				assertEqualPixels(batch1.input, batch2.input);
+				assertEqualPixels(batch1.outDenoise, batch2.outDenoise);
+				assertEqualPixels(batch1.outSegment, batch2.outSegment);
+			}
+			wrapper1.on_epoch_end();
+			wrapper2.on_epoch_end();
+		}
+	}
+
+	private DenoiSegDataWrapper<FloatType> createWrapper(TrainingDataCollection<FloatType> tiles, long seed) {
+		return new DenoiSegDataWrapper<>(tiles, 4, 1.6, new FinalDimensions(16, 16), 5,
+				DenoiSegDataWrapper::uniform_withCP, new SplittableRandom(seed));
+	}
+
+	private TrainingDataCollection<FloatType> createTiles(long... tileShape) {
+		Random random = new Random(0);
+		long[] inputDims = Arrays.copyOf(tileShape, tileShape.length + 2);
+		inputDims[tileShape.length] = 1;
+		inputDims[tileShape.length + 1] = 1;
+		long[] labelingDims = inputDims.clone();
+		labelingDims[tileShape.length + 1] = 3;
+		TrainingDataCollection<FloatType> tiles = new TrainingDataCollection<>();
+		for (int i = 0; i < 8; i++) {
+			RandomAccessibleInterval<FloatType> input = ArrayImgs.floats(inputDims);
+			RandomAccessibleInterval<FloatType> labeling = ArrayImgs.floats(labelingDims);
+			Views.iterable(input).forEach(pixel -> pixel.set(random.nextFloat()));
+			Views.iterable(labeling).forEach(pixel -> pixel.set(random.nextInt(2)));
+			tiles.add(new TrainingData<>(input, labeling));
+		}
+		return tiles;
+	}
+
+	private void assertEqualPixels(RandomAccessibleInterval<FloatType> expected, RandomAccessibleInterval<FloatType> actual) {
+		Cursor<FloatType> expectedCursor = Views.flatIterable(expected).cursor();
+		Cursor<FloatType> actualCursor = Views.flatIterable(actual).cursor();
+		while (expectedCursor.hasNext()) {
+			assertEquals(expectedCursor.next().get(), actualCursor.next().get(), 0);
+		}
+	}
+}
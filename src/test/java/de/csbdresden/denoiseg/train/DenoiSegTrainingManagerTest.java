@@ -0,0 +1,120 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DenoiSegTrainingManagerTest {
+
+	@Test
+	public void testReserveAndRelease() throws InterruptedException {
+		DenoiSegTrainingManager manager = new DenoiSegTrainingManager(null, 4, 1000, 2);
+		manager.reserve(3, 600);
+		assertEquals(1, manager.getFreeCores());
+		assertEquals(400, manager.getFreeMemory());
+		manager.release(3, 600);
+		assertEquals(4, manager.getFreeCores());
+		assertEquals(1000, manager.getFreeMemory());
+	}
+
+	@Test
+	public void testReserveWaitsForRelease() throws InterruptedException {
+		DenoiSegTrainingManager manager = new DenoiSegTrainingManager(null, 4, 1000, 2);
+		manager.reserve(2, 800);
+		CountDownLatch reserved = new CountDownLatch(1);
+		Thread waiting = new Thread(() -> {
+			try {
+				// enough cores are free, but not enough memory
+				manager.reserve(2, 400);
+				reserved.countDown();
+			} catch (InterruptedException ignored) {
+			}
+		});
+		waiting.start();
+		assertFalse(reserved.await(200, TimeUnit.MILLISECONDS));
+		assertEquals(2, manager.getFreeCores());
+		manager.release(2, 800);
+		assertTrue(reserved.await(5, TimeUnit.SECONDS));
+		waiting.join();
+		assertEquals(2, manager.getFreeCores());
+		assertEquals(600, manager.getFreeMemory());
+	}
+
+	@Test
+	public void testBudgetedConfigIsCopy() {
+		DenoiSegConfig config = new DenoiSegConfig().setInterOpThreads(1).setValidationThreads(8);
+		DenoiSegConfig budgeted = DenoiSegTrainingManager.budgetedConfig(config, 3);
+		assertEquals(3, budgeted.getIntraOpThreads());
+		assertEquals(1, budgeted.getInterOpThreads());
+		assertEquals(3, budgeted.getWorkerThreads());
+		assertEquals(3, budgeted.getValidationThreads());
+		assertEquals(config.getSeed(), budgeted.getSeed());
+		// the config of the caller is not modified
+		assertEquals(0, config.getIntraOpThreads());
+		assertEquals(1, config.getInterOpThreads());
+		assertEquals(0, config.getWorkerThreads());
+		assertEquals(8, config.getValidationThreads());
+		assertEquals(0, config.getMemoryBudget());
+	}
+
+	@Test
+	public void testEstimatedReservationIsNoMemoryBudget() {
+		// without a budget the reservation is the data independent estimate of the training
+		DenoiSegConfig config = new DenoiSegConfig();
+		long estimate = new MemoryEstimator(config).estimate(config.getTrainBatchSize(), 0, 0);
+		assertEquals(estimate, DenoiSegTrainingManager.requiredMemory(config));
+		// the estimate must not become a budget, the data of the training would exceed it
+		assertEquals(0, DenoiSegTrainingManager.budgetedConfig(config, 2).getMemoryBudget());
+		assertTrue(new MemoryEstimator(config).estimate(config.getTrainBatchSize(), 1024 * 1024, 10) > estimate);
+	}
+
+	@Test
+	public void testConfiguredMemoryBudgetIsReserved() {
+		DenoiSegConfig config = new DenoiSegConfig().setMemoryBudget(700);
+		assertEquals(700, DenoiSegTrainingManager.requiredMemory(config));
+		assertEquals(700, DenoiSegTrainingManager.budgetedConfig(config, 2).getMemoryBudget());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSubmitRejectsBudgetAboveManagerBudget() {
+		DenoiSegTrainingManager manager = new DenoiSegTrainingManager(null, 4, 1000, 2);
+		try {
+			manager.submit(new DenoiSegConfig().setMemoryBudget(2000), training -> {});
+		} finally {
+			manager.shutdown();
+		}
+	}
+}
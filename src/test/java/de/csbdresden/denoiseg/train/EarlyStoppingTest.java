@@ -0,0 +1,60 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EarlyStoppingTest {
+
+	@Test
+	public void testStopsAfterPatience() {
+		EarlyStopping earlyStopping = new EarlyStopping(3, 0.01f, false, null);
+		assertFalse(earlyStopping.update(1.0f));
+		assertFalse(earlyStopping.update(0.5f));
+		assertFalse(earlyStopping.update(0.495f));
+		assertFalse(earlyStopping.update(0.6f));
+		assertTrue(earlyStopping.update(0.5f));
+		assertEquals(2, earlyStopping.getBestEpoch());
+	}
+
+	@Test
+	public void testImprovementResetsPatience() {
+		EarlyStopping earlyStopping = new EarlyStopping(2, 0, false, null);
+		assertFalse(earlyStopping.update(1.0f));
+		assertFalse(earlyStopping.update(1.0f));
+		assertFalse(earlyStopping.update(0.9f));
+		assertFalse(earlyStopping.update(0.95f));
+		assertTrue(earlyStopping.update(0.95f));
+		assertEquals(3, earlyStopping.getBestEpoch());
+	}
+}
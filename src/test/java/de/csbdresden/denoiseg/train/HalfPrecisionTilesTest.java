@@ -0,0 +1,87 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HalfPrecisionTilesTest {
+
+	@Test
+	public void testHalfConversion() {
+		for (int bits = 0; bits < 0x7c00; bits++) {
+			float value = HalfPrecisionTiles.fromHalf((short) bits);
+			assertEquals(bits, HalfPrecisionTiles.toHalf(value));
+			assertEquals((short) (bits | 0x8000), HalfPrecisionTiles.toHalf(-value));
+		}
+		assertEquals(65504f, HalfPrecisionTiles.fromHalf(HalfPrecisionTiles.toHalf(65504f)), 0);
+		assertEquals(Float.POSITIVE_INFINITY, HalfPrecisionTiles.fromHalf(HalfPrecisionTiles.toHalf(70000f)), 0);
+		// ties round to even
+		assertEquals(1f, HalfPrecisionTiles.fromHalf(HalfPrecisionTiles.toHalf(1f + 0x1p-11f)), 0);
+		assertEquals(1f + 0x1p-9f, HalfPrecisionTiles.fromHalf(HalfPrecisionTiles.toHalf(1f + 0x1p-10f + 0x1p-11f)), 0);
+	}
+
+	@Test
+	public void testBFloat16Conversion() {
+		assertEquals(3.140625f, HalfPrecisionTiles.fromBFloat16(HalfPrecisionTiles.toBFloat16(3.14159f)), 0);
+		assertEquals(1f, HalfPrecisionTiles.fromBFloat16(HalfPrecisionTiles.toBFloat16(1f + 0x1p-8f)), 0);
+		assertEquals(1e30f, HalfPrecisionTiles.fromBFloat16(HalfPrecisionTiles.toBFloat16(1e30f)), 1e28f);
+		assertTrue(Float.isNaN(HalfPrecisionTiles.fromBFloat16(HalfPrecisionTiles.toBFloat16(Float.NaN))));
+	}
+
+	@Test
+	public void testConvertedTileAndError() {
+		Random random = new Random(0);
+		RandomAccessibleInterval<FloatType> tile = ArrayImgs.floats(16, 16, 1, 1);
+		Views.iterable(tile).forEach(pixel -> pixel.set((float) random.nextGaussian()));
+		HalfPrecisionTiles halfPrecisionTiles = new HalfPrecisionTiles(DenoiSegConfig.RawStorage.FLOAT16);
+		RandomAccessibleInterval<FloatType> converted = halfPrecisionTiles.convert(tile);
+		double maxError = 0;
+		Cursor<FloatType> expected = Views.flatIterable(tile).cursor();
+		Cursor<FloatType> actual = Views.flatIterable(converted).cursor();
+		while (expected.hasNext()) {
+			float value = expected.next().get();
+			maxError = Math.max(maxError, Math.abs(actual.next().get() - (double) value));
+			// half precision has 11 significant bits, subnormal values have a fixed spacing of 2^-24
+			assertEquals(value, actual.get().get(), Math.max(Math.abs(value) * 0x1p-11f, 0x1p-25f));
+		}
+		assertEquals(maxError, halfPrecisionTiles.getMaxError(), 0);
+		assertTrue(halfPrecisionTiles.getRmsError() > 0);
+		assertTrue(halfPrecisionTiles.getRmsError() <= halfPrecisionTiles.getMaxError());
+	}
+}
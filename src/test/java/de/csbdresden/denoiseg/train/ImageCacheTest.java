@@ -0,0 +1,185 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ImageCacheTest {
+
+	private static ImageCache.Key key(String name, long bytes) {
+		return new ImageCache.Key(new File(name), null, new long[]{4, 4}, bytes);
+	}
+
+	private static ImageCache.Images images() {
+		return new ImageCache.Images(ArrayImgs.floats(4, 4), null);
+	}
+
+	@Test
+	public void testLabelsAreCompactedOncePerLoad() {
+		AtomicInteger loads = new AtomicInteger();
+		AtomicInteger compactions = new AtomicInteger();
+		ImageCache cache = new ImageCache(100, key -> {
+			loads.incrementAndGet();
+			return new ImageCache.Images(ArrayImgs.floats(4, 4), ArrayImgs.ints(4, 4));
+		});
+		ImageCache.Key a = new ImageCache.Key(new File("a"), new File("a-labeling"), new long[]{4, 4}, 100);
+		ImageCache.Key b = key("b", 100);
+		assertEquals(0, compactions.get());
+		Img<UnsignedByteType> labels = ArrayImgs.unsignedBytes(4, 4);
+		assertSame(labels, cache.get(a).labels(labeling -> { compactions.incrementAndGet(); return labels; }));
+		cache.get(a).labels(labeling -> { compactions.incrementAndGet(); return labels; });
+		assertEquals(1, compactions.get());
+		// evicting the images drops their labels, they are compacted again after the next load
+		cache.get(b);
+		cache.get(a).labels(labeling -> { compactions.incrementAndGet(); return labels; });
+		assertEquals(3, loads.get());
+		assertEquals(2, compactions.get());
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		AtomicInteger loads = new AtomicInteger();
+		ImageCache cache = new ImageCache(300, key -> {
+			loads.incrementAndGet();
+			return images();
+		});
+		ImageCache.Key a = key("a", 100);
+		ImageCache.Key b = key("b", 100);
+		ImageCache.Key c = key("c", 100);
+		ImageCache.Key d = key("d", 100);
+		cache.get(a);
+		cache.get(b);
+		cache.get(c);
+		cache.get(a);
+		cache.get(d);
+		assertEquals(4, loads.get());
+		assertTrue(cache.contains(a));
+		assertFalse(cache.contains(b));
+		assertTrue(cache.contains(c));
+		assertTrue(cache.contains(d));
+		assertEquals(300, cache.getBytes());
+		assertEquals(1, cache.getHits());
+		cache.dispose();
+	}
+
+	@Test
+	public void testKeepsImageLargerThanCapacity() {
+		ImageCache cache = new ImageCache(50, key -> images());
+		ImageCache.Key a = key("a", 100);
+		ImageCache.Images images = cache.get(a);
+		assertSame(images, cache.get(a));
+		cache.dispose();
+	}
+
+	@Test
+	public void testPrefetch() {
+		AtomicInteger loads = new AtomicInteger();
+		ImageCache cache = new ImageCache(1000, key -> {
+			loads.incrementAndGet();
+			return images();
+		});
+		ImageCache.Key a = key("a", 100);
+		cache.prefetch(Collections.singleton(a));
+		cache.get(a);
+		assertEquals(1, loads.get());
+		assertTrue(cache.contains(a));
+		cache.dispose();
+	}
+
+	@Test
+	public void testBlockOrderGroupsTilesOfImages() {
+		ImageCache cache = new ImageCache(400, key -> images());
+		List<ImageCache.Key> keys = new ArrayList<>();
+		TrainingDataCollection<FloatType> tiles = new TrainingDataCollection<>();
+		for (int i = 0; i < 10; i++) {
+			ImageCache.Key key = key("image" + i, 100);
+			keys.add(key);
+			for (int j = 0; j < 5; j++) {
+				tiles.add(new TrainingData<>(ArrayImgs.floats(2, 2), null, key));
+			}
+		}
+		ImageBlockOrder order = new ImageBlockOrder(cache);
+		order.shuffle(tiles, new Random(0));
+		assertEquals(50, tiles.size());
+		// two images fill half of the cache
+		assertEquals(5, order.getNumBlocks());
+		Set<ImageCache.Key> seen = new HashSet<>();
+		for (int block = 0; block < order.getNumBlocks(); block++) {
+			Set<ImageCache.Key> images = order.getImages(block);
+			assertEquals(2, images.size());
+			for (TrainingData<FloatType> tile : tiles.subList(block * 10, block * 10 + 10)) {
+				assertTrue(images.contains(tile.source));
+			}
+			seen.addAll(images);
+		}
+		assertEquals(new HashSet<>(keys), seen);
+		cache.dispose();
+	}
+
+	@Test
+	public void testStatisticsDecodeOnlySampledImages() {
+		AtomicInteger loads = new AtomicInteger();
+		ImageCache cache = new ImageCache(1000, key -> {
+			loads.incrementAndGet();
+			ImageCache.Images images = images();
+			((Img<FloatType>) images.raw).forEach(pixel -> pixel.set(loads.get() % 2 == 0 ? 2 : 4));
+			return images;
+		});
+		TrainingSources sources = new TrainingSources();
+		for (int i = 0; i < 10; i++) {
+			ImageCache.Key key = key(String.valueOf(i), 100);
+			sources.addStatisticsCandidate(new CachedImage<>(key.dimensions, () -> cache.get(key).raw));
+		}
+		assertEquals(0, loads.get());
+		assertFalse(sources.hasStatistics());
+		sources.sampleStatistics(2, new Random(0));
+		assertEquals(2, loads.get());
+		assertTrue(sources.hasStatistics());
+		assertEquals(3, sources.getMean(), 0.0001);
+		cache.dispose();
+	}
+}
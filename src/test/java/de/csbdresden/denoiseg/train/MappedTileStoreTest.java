@@ -0,0 +1,81 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class MappedTileStoreTest {
+
+	@Test
+	public void testTilesAreReadBackAcrossSegments() throws IOException {
+		File tmpDir = Files.createTempDirectory("denoiseg-tile-store-test").toFile();
+		Random random = new Random(0);
+		List<RandomAccessibleInterval<FloatType>> tiles = new ArrayList<>();
+		List<RandomAccessibleInterval<FloatType>> stored = new ArrayList<>();
+		// segments of 4 tiles, the fifth tile starts a new segment
+		MappedTileStore store = new MappedTileStore(tmpDir, 4 * 16 * 16 * 3 * Float.BYTES);
+		for (int i = 0; i < 5; i++) {
+			RandomAccessibleInterval<FloatType> tile = ArrayImgs.floats(16, 16, 3);
+			Views.iterable(tile).forEach(pixel -> pixel.set(random.nextFloat()));
+			tiles.add(tile);
+			stored.add(store.add(Views.translate(tile, 5, 5, 0)));
+		}
+		assertEquals(5, store.getNumRecords());
+		assertEquals(5 * 16 * 16 * 3 * Float.BYTES, store.getBytes());
+		for (int i = 0; i < tiles.size(); i++) {
+			assertArrayEquals(Intervals.dimensionsAsLongArray(tiles.get(i)), Intervals.dimensionsAsLongArray(stored.get(i)));
+			assertEquals(0, stored.get(i).min(0));
+			Cursor<FloatType> expected = Views.flatIterable(tiles.get(i)).cursor();
+			Cursor<FloatType> actual = Views.flatIterable(stored.get(i)).cursor();
+			while (expected.hasNext()) {
+				assertEquals(expected.next().get(), actual.next().get(), 0);
+			}
+		}
+		store.close();
+		assertFalse(store.getFile().exists());
+		tmpDir.delete();
+	}
+}
@@ -0,0 +1,62 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryEstimatorTest {
+
+	@Test
+	public void testEstimateGrowsWithBatchAndData() {
+		MemoryEstimator estimator = new MemoryEstimator(new DenoiSegConfig().setPatchShape(64));
+		assertTrue(estimator.estimate(16, 0, 0) < estimator.estimate(32, 0, 0));
+		assertTrue(estimator.estimate(16, 0, 0) < estimator.estimate(16, 1000000, 10));
+		assertEquals(estimator.weightBytes() + estimator.batchBytes(0), estimator.estimate(0, 0, 0));
+	}
+
+	@Test
+	public void testLargestFittingBatchSize() {
+		MemoryEstimator estimator = new MemoryEstimator(new DenoiSegConfig().setPatchShape(64));
+		long budget = estimator.estimate(20, 0, 0);
+		assertEquals(20, estimator.largestFittingBatchSize(budget, 64, 0, 0));
+		assertEquals(10, estimator.largestFittingBatchSize(budget, 10, 0, 0));
+		assertEquals(0, estimator.largestFittingBatchSize(estimator.weightBytes(), 64, 0, 0));
+	}
+
+	@Test
+	public void testTilesOfIndexedImages() {
+		MemoryEstimator estimator = new MemoryEstimator(new DenoiSegConfig().setPatchShape(64));
+		// tiles are twice the patch shape wide
+		assertEquals(4, estimator.tiles(256 * 256));
+		assertEquals(0, estimator.tiles(100));
+	}
+}
@@ -0,0 +1,131 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import org.apache.commons.io.FileUtils;
+import org.janelia.saalfeldlab.n5.N5FSWriter;
+import org.janelia.saalfeldlab.n5.RawCompression;
+import org.janelia.saalfeldlab.n5.imglib2.N5Utils;
+import org.junit.Test;
+import org.scijava.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class N5SourceTest {
+
+	@Test
+	public void testTilesFromN5Datasets() throws IOException {
+		File tmpDir = Files.createTempDirectory("denoiseg-n5-test").toFile();
+		Context context = new Context();
+		try {
+			Random random = new Random(0);
+			ArrayImg<UnsignedShortType, ShortArray> raw = ArrayImgs.unsignedShorts(32, 32);
+			raw.forEach(pixel -> pixel.set(random.nextInt(1000)));
+			// one object in the first tile, all other pixels are background
+			ArrayImg<IntType, IntArray> labeling = ArrayImgs.ints(32, 32);
+			Views.interval(labeling, new long[]{2, 2}, new long[]{9, 9}).forEach(pixel -> pixel.set(1));
+			N5FSWriter writer = new N5FSWriter(tmpDir.getAbsolutePath());
+			N5Utils.save(raw, writer, "raw", new int[]{16, 16}, new RawCompression());
+			N5Utils.save(labeling, writer, "labeling", new int[]{16, 16}, new RawCompression());
+
+			// patch shape 8 tiles the image into 2 x 2 tiles of size 16
+			InputHandler n5Input = new InputHandler(context, new DenoiSegConfig().setPatchShape(8));
+			n5Input.addTrainingData(writer, "raw", "labeling");
+			InputHandler memoryInput = new InputHandler(context, new DenoiSegConfig().setPatchShape(8));
+			memoryInput.addTrainingData(Converters.convert((RandomAccessibleInterval<UnsignedShortType>) raw,
+					(in, out) -> out.setReal(in.getRealFloat()), new FloatType()), labeling);
+
+			TrainingDataCollection<FloatType> tiles = n5Input.getLabeledTrainingPairs();
+			TrainingDataCollection<FloatType> expected = memoryInput.getLabeledTrainingPairs();
+			assertEquals(4, tiles.size());
+			assertEquals(expected.size(), tiles.size());
+			for (int i = 0; i < tiles.size(); i++) {
+				assertArrayEquals(new long[]{16, 16, 1, 1}, Intervals.dimensionsAsLongArray(tiles.get(i).input));
+				assertArrayEquals(new long[]{16, 16, 1, 3}, Intervals.dimensionsAsLongArray(tiles.get(i).outSegment));
+				assertEqualPixels(expected.get(i).input, tiles.get(i).input);
+				assertEqualPixels(expected.get(i).outSegment, tiles.get(i).outSegment);
+			}
+
+			// the second tile covers x 16..31 and y 0..15 of the raw image
+			RandomAccess<FloatType> input = tiles.get(1).input.randomAccess();
+			input.setPosition(new long[]{3, 4, 0, 0});
+			RandomAccess<UnsignedShortType> rawAccess = raw.randomAccess();
+			rawAccess.setPosition(new long[]{19, 4});
+			assertEquals(rawAccess.get().get(), input.get().get(), 0);
+
+			// the channels of the segmentation target are background, foreground and border
+			assertEquals(1, classIndex(tiles.get(0).outSegment, 5, 5));
+			assertEquals(0, classIndex(tiles.get(0).outSegment, 12, 12));
+			assertEquals(0, classIndex(tiles.get(3).outSegment, 5, 5));
+		} finally {
+			context.dispose();
+			FileUtils.deleteDirectory(tmpDir);
+		}
+	}
+
+	private static int classIndex(RandomAccessibleInterval<FloatType> outSegment, long x, long y) {
+		RandomAccess<FloatType> access = outSegment.randomAccess();
+		int index = -1;
+		for (int c = 0; c < 3; c++) {
+			access.setPosition(new long[]{x, y, 0, c});
+			if(access.get().get() == 1) {
+				assertEquals("more than one class at " + x + ", " + y, -1, index);
+				index = c;
+			}
+		}
+		return index;
+	}
+
+	private static void assertEqualPixels(RandomAccessibleInterval<FloatType> expected, RandomAccessibleInterval<FloatType> actual) {
+		Cursor<FloatType> expectedCursor = Views.flatIterable(expected).cursor();
+		Cursor<FloatType> actualCursor = Views.flatIterable(actual).cursor();
+		while (expectedCursor.hasNext()) {
+			assertEquals(expectedCursor.next().get(), actualCursor.next().get(), 0);
+		}
+	}
+}
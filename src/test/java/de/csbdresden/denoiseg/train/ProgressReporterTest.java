@@ -0,0 +1,62 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProgressReporterTest {
+
+	@Test
+	public void testCoalescesReports() {
+		ByteArrayOutputStream console = new ByteArrayOutputStream();
+		List<Runnable> queued = new ArrayList<>();
+		List<ProgressReporter.Progress> shown = new ArrayList<>();
+		ProgressReporter reporter = new ProgressReporter(60000, DenoiSegConfig.ConsoleFormat.MACHINE,
+				new PrintStream(console, true), queued::add, shown::add);
+		for (int step = 1; step <= 100; step++) {
+			reporter.step(new ProgressReporter.Progress(1, 1, step, 100, 1, 1, 1, 0.1f));
+		}
+		String[] lines = console.toString().trim().split("\n");
+		assertEquals(1, lines.length);
+		assertTrue(lines[0].startsWith("{\"epoch\":1,\"step\":100,\"stepsPerEpoch\":100,\"steps\":100,\"loss\":1.000000"));
+		// the first update is still pending, so no further one was queued
+		assertEquals(1, queued.size());
+		queued.get(0).run();
+		assertEquals(1, shown.size());
+		assertEquals(100, shown.get(0).getStep());
+	}
+}
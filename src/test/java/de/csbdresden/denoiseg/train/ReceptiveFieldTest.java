@@ -0,0 +1,81 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReceptiveFieldTest {
+
+	@Test
+	public void testTheoreticalHalo() {
+		// a single convolution of size 3 sees one pixel to each side
+		assertEquals(1, ReceptiveField.halo(0, 1, 3));
+		assertEquals(22, ReceptiveField.halo(2));
+		assertEquals(48, ReceptiveField.halo(3));
+		assertEquals(100, ReceptiveField.halo(4));
+	}
+
+	@Test
+	public void testProbeSize() {
+		assertEquals(48, ReceptiveField.probeSize(2));
+		assertEquals(208, ReceptiveField.probeSize(4));
+	}
+
+	@Test
+	public void testImpulseHalo2D() {
+		int size = 9;
+		int channels = 3;
+		long[] shape = {2, size, size, channels};
+		int perTile = size * size * channels;
+		float[] values = new float[2 * perTile];
+		// the response of the impulse in the center reaches two pixels up in y and one pixel to the right in x
+		values[perTile + ((4 - 2) * size + 4) * channels + 1] = 0.5f;
+		values[perTile + (4 * size + 5) * channels + 2] = 0.1f;
+		// noise far below the strongest response is ignored
+		values[perTile + (0 * size + 0) * channels] = 1e-6f;
+		assertEquals(2, ReceptiveField.impulseHalo(values, shape));
+	}
+
+	@Test
+	public void testImpulseHalo3D() {
+		int size = 8;
+		long[] shape = {2, size, size, size, 1};
+		int perTile = size * size * size;
+		float[] values = new float[2 * perTile];
+		values[perTile + (7 * size + 4) * size + 4] = 1;
+		assertEquals(3, ReceptiveField.impulseHalo(values, shape));
+	}
+
+	@Test
+	public void testNoResponse() {
+		assertEquals(0, ReceptiveField.impulseHalo(new float[2 * 16], new long[]{2, 4, 4, 1}));
+	}
+}
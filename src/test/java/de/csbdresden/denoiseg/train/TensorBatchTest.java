@@ -0,0 +1,68 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.Cursor;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TensorBatchTest {
+
+	@Test
+	public void testTensorLayout() {
+		long[] dims = {3, 2, 4, 5};
+		TensorBatch batch = new TensorBatch(dims, new int[]{1, 2, 0, 3});
+		assertArrayEquals(dims, new long[]{batch.dimension(0), batch.dimension(1), batch.dimension(2), batch.dimension(3)});
+		assertArrayEquals(new long[]{4, 3, 2, 5}, batch.getTensorShape());
+		Cursor<FloatType> cursor = Views.flatIterable(batch).localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.next().set(value(cursor.getIntPosition(0), cursor.getIntPosition(1), cursor.getIntPosition(2), cursor.getIntPosition(3)));
+		}
+		float[] data = batch.getData();
+		int i = 0;
+		// row-major order of the tensor shape (b, x, y, c)
+		for (int b = 0; b < 4; b++) {
+			for (int x = 0; x < 3; x++) {
+				for (int y = 0; y < 2; y++) {
+					for (int c = 0; c < 5; c++) {
+						assertEquals(value(x, y, b, c), data[i++], 0);
+					}
+				}
+			}
+		}
+	}
+
+	private static float value(int x, int y, int b, int c) {
+		return x + 10 * y + 100 * b + 1000 * c;
+	}
+}
@@ -0,0 +1,109 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TrainingBundleTest {
+
+	@Test
+	public void testWriteAndOpen() throws IOException {
+		Random random = new Random(0);
+		TrainingDataCollection<FloatType> tiles = new TrainingDataCollection<>();
+		for (int i = 0; i < 3; i++) {
+			RandomAccessibleInterval<FloatType> input = ArrayImgs.floats(5, 7, 1, 1);
+			Views.iterable(input).forEach(pixel -> pixel.set(random.nextFloat()));
+			RandomAccessibleInterval<FloatType> oneHot = ArrayImgs.floats(5, 7, 1, 3);
+			RandomAccess<FloatType> oneHotRA = oneHot.randomAccess();
+			for (int y = 0; y < 7; y++) {
+				for (int x = 0; x < 5; x++) {
+					// class 3 stays zero in all channels, like unlabeled tiles
+					int c = random.nextInt(4);
+					if(c == 3) continue;
+					oneHotRA.setPosition(new long[]{x, y, 0, c});
+					oneHotRA.get().setOne();
+				}
+			}
+			tiles.add(new TrainingData<>(input, oneHot));
+		}
+		ProcessedTrainingDataCollection<FloatType> batches = new ProcessedTrainingDataCollection<>();
+		RandomAccessibleInterval<FloatType> batchInput = ArrayImgs.floats(4, 4, 2, 1);
+		Views.iterable(batchInput).forEach(pixel -> pixel.set(random.nextFloat()));
+		batches.add(new ProcessedTrainingData<>(batchInput, ArrayImgs.floats(4, 4, 2, 2), ArrayImgs.floats(4, 4, 2, 3)));
+
+		File file = Files.createTempFile("denoiseg-bundle", ".bin").toFile();
+		file.deleteOnExit();
+		TrainingBundle.write(file, 2, 0.5f, 2f, tiles, batches);
+		try (TrainingBundle bundle = TrainingBundle.open(file)) {
+			assertEquals(2, bundle.getTrainDimensions());
+			assertEquals(0.5f, bundle.getMean(), 0);
+			assertEquals(2f, bundle.getStdDev(), 0);
+			assertEquals(tiles.size(), bundle.getTrainingData().size());
+			for (int i = 0; i < tiles.size(); i++) {
+				assertEqualImages(tiles.get(i).input, bundle.getTrainingData().get(i).input);
+				assertEqualImages(tiles.get(i).outSegment, bundle.getTrainingData().get(i).outSegment);
+			}
+			assertEquals(1, bundle.getValidationBatches().size());
+			assertEqualImages(batchInput, bundle.getValidationBatches().get(0).input);
+			assertArrayEquals(new long[]{4, 4, 2, 3}, Intervals.dimensionsAsLongArray(bundle.getValidationBatches().get(0).outSegment));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testRejectsOtherFiles() throws IOException {
+		File file = Files.createTempFile("denoiseg-bundle", ".bin").toFile();
+		file.deleteOnExit();
+		Files.write(file.toPath(), new byte[64]);
+		TrainingBundle.open(file);
+	}
+
+	private static void assertEqualImages(RandomAccessibleInterval<FloatType> expected, RandomAccessibleInterval<FloatType> actual) {
+		assertArrayEquals(Intervals.dimensionsAsLongArray(expected), Intervals.dimensionsAsLongArray(actual));
+		Cursor<FloatType> expectedCursor = Views.flatIterable(expected).cursor();
+		Cursor<FloatType> actualCursor = Views.flatIterable(actual).cursor();
+		while (expectedCursor.hasNext()) {
+			assertEquals(expectedCursor.next().get(), actualCursor.next().get(), 0);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TrainingMetricsTest {
+
+	@Test
+	public void testPhaseStatistics() {
+		TrainingMetrics metrics = new TrainingMetrics();
+		for (int i = 1; i <= 100; i++) {
+			metrics.record(TrainingMetrics.Phase.SESSION_RUN, i * 1000000L);
+		}
+		TrainingMetrics.PhaseStatistics statistics = metrics.get(TrainingMetrics.Phase.SESSION_RUN);
+		assertEquals(100, statistics.getCount());
+		assertEquals(5050, statistics.getTotalMillis(), 1e-6);
+		assertEquals(50.5, statistics.getMeanMillis(), 1e-6);
+		assertEquals(50, statistics.getPercentileMillis(50), 1e-6);
+		assertEquals(99, statistics.getPercentileMillis(99), 1e-6);
+		assertEquals(0, metrics.get(TrainingMetrics.Phase.DECODE).getCount());
+	}
+
+	@Test
+	public void testThroughputAndJson() {
+		TrainingMetrics metrics = new TrainingMetrics();
+		metrics.addPatches(20, 2000000000L);
+		assertEquals(10, metrics.getPatchesPerSecond(), 1e-6);
+		String json = metrics.toJson(1);
+		assertTrue(json.startsWith("{\"epoch\":1,\"patches\":20,\"patchesPerSecond\":10.000"));
+		assertTrue(json.contains("\"session_run\":{\"count\":0"));
+	}
+}
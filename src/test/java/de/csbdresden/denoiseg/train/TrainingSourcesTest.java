@@ -0,0 +1,68 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.real.FloatType;
+import org.junit.Test;
+import org.scijava.Context;
+
+import static org.junit.Assert.assertEquals;
+
+public class TrainingSourcesTest {
+
+	@Test
+	public void testSourcesAreTiledByEachHandler() {
+		Context context = new Context();
+		try {
+			Img<FloatType> raw = ArrayImgs.floats(32, 32, 32);
+			Img<IntType> labeling = ArrayImgs.ints(32, 32, 32);
+			// loading the sources does not tile them, so its config does not need to match the trials
+			InputHandler sourcesInput = new InputHandler(context, new DenoiSegConfig());
+			sourcesInput.setSourcesOnly(true);
+			sourcesInput.addTrainingData(raw, labeling);
+			sourcesInput.addValidationData(raw, labeling);
+			TrainingSources sources = sourcesInput.getSources();
+			assertEquals(2, sources.size());
+			assertEquals(0, sourcesInput.getLabeledTrainingPairs().size());
+			assertEquals(0, sourcesInput.getValidationData().size());
+
+			InputHandler trialInput = new InputHandler(context, new DenoiSegConfig().setTrainDimensions(3).setPatchShape(8));
+			trialInput.addSources(sources);
+			// tiles are twice the patch shape wide
+			assertEquals(8, trialInput.getLabeledTrainingPairs().size());
+			assertEquals(8, trialInput.getValidationData().size());
+			assertEquals(0, trialInput.getSources().size());
+		} finally {
+			context.dispose();
+		}
+	}
+}
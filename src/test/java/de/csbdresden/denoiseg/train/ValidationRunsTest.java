@@ -0,0 +1,146 @@
+/*-
+ * #%L
+ * DenoiSeg plugin
+ * %%
+ * Copyright (C) 2019 - 2020 Center for Systems Biology Dresden
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package de.csbdresden.denoiseg.train;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ValidationRunsTest {
+
+	@Test
+	public void testRunsBatchesConcurrently() {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		CyclicBarrier barrier = new CyclicBarrier(2);
+		boolean[] done = ValidationRuns.run(executor, 2, batch -> {
+			try {
+				// only passes if both batches run at the same time
+				barrier.await(10, TimeUnit.SECONDS);
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}, () -> false);
+		assertArrayEquals(new boolean[]{true, true}, done);
+		ValidationRuns.shutdown(executor);
+	}
+
+	@Test
+	public void testInterruptWaitsForRunningBatch() throws InterruptedException {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicBoolean running = new AtomicBoolean(false);
+		AtomicBoolean runningOnReturn = new AtomicBoolean(true);
+		AtomicBoolean interruptedOnReturn = new AtomicBoolean(false);
+		AtomicReference<boolean[]> result = new AtomicReference<>();
+		Thread validation = new Thread(() -> {
+			result.set(ValidationRuns.run(executor, 3, batch -> {
+				running.set(true);
+				started.countDown();
+				try {
+					// like a session run, the batch does not react to interrupts
+					while (true) {
+						try {
+							release.await();
+							break;
+						} catch (InterruptedException ignored) {
+						}
+					}
+				} finally {
+					running.set(false);
+				}
+			}, () -> false));
+			runningOnReturn.set(running.get());
+			interruptedOnReturn.set(Thread.currentThread().isInterrupted());
+		});
+		validation.start();
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		validation.interrupt();
+		validation.join(200);
+		assertTrue("returned while a batch was still running", validation.isAlive());
+		release.countDown();
+		validation.join(10000);
+		assertFalse(validation.isAlive());
+		assertFalse(runningOnReturn.get());
+		assertTrue(interruptedOnReturn.get());
+		// the queued batches are skipped after the interrupt
+		assertArrayEquals(new boolean[]{true, false, false}, result.get());
+		ValidationRuns.shutdown(executor);
+	}
+
+	@Test
+	public void testFailureIsThrownAfterAllBatches() {
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		CountDownLatch slowBatchStarted = new CountDownLatch(1);
+		AtomicBoolean slowBatchDone = new AtomicBoolean(false);
+		try {
+			ValidationRuns.run(executor, 2, batch -> {
+				try {
+					if (batch == 0) {
+						slowBatchStarted.await(10, TimeUnit.SECONDS);
+						throw new IllegalStateException("OOM");
+					}
+					slowBatchStarted.countDown();
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+				slowBatchDone.set(true);
+			}, () -> false);
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("OOM", e.getMessage());
+			assertTrue(slowBatchDone.get());
+		} finally {
+			ValidationRuns.shutdown(executor);
+		}
+	}
+
+	@Test
+	public void testSkip() {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		boolean[] done = ValidationRuns.run(executor, 3, batch -> {}, () -> true);
+		assertArrayEquals(new boolean[]{false, false, false}, done);
+		ValidationRuns.shutdown(executor);
+		// batches rejected by a terminated executor are skipped instead of blocking
+		assertArrayEquals(new boolean[]{false, false}, ValidationRuns.run(executor, 2, batch -> {}, () -> false));
+	}
+}